@@ -1,8 +1,5 @@
 package org.holistic.bactocom;
 
-import java.util.ArrayList;
-import java.util.List;
-
 
 /**
  * A simple Bacterial agent skeleton  
@@ -16,28 +13,12 @@ import java.util.List;
 public abstract class AbstractBacterium {
 	// Agent Parameters
 	private BacteriumParameters parameters;
-	private Genotype Id; 
-	private Genotype genotype;
-	
-	
-	// Vegetative state variables
-	private double width= 0;
-	private double length= 0;
-	
-	// Conjugative state variables
-	private State state0= null;			// The initial cell state.
-	private State state= null;			// The current cell state.
-	
-	// Super-individuals related variables
-	private int individuals= 1;			// Number of individuals which this agent (super-individual) represents.
 	
-	// Account variables
-	private List<Genotype> neighbors;	// List for for accounting D|T to R encounters
-	private List<String> nn;			// List for for accounting D|T to R encounters
-	private int encounters= 0;			// Number of D|T to R encounters
-	private int conjugations= 0;		// Number of conjugative events performed by a single cell.
-	
-	private boolean starved= false;		// Cell is no longer growing due to nutrient exhaustion
+	// The run this cell belongs to
+	protected final SimulationContext simulation;
+	// The per cell state is kept by the store, this object is just a view over its slot
+	protected final BacteriumStore store;
+	private int slot= -1;				// The agent slot on the store, -1 once released
 	
 	
 	/**
@@ -48,53 +29,93 @@ public abstract class AbstractBacterium {
 	 * 
 	 */
 	public AbstractBacterium(State s, BacteriumParameters p) {
+		simulation= SimulationContext.getInstance();
+		store= simulation.getStore();
+		slot= StepContext.current().allocate((Bacterium) this);
 		setState(s);
 		setParameters(p);
-		setGenotype(new Genotype());
-		getGenotype().createGenome();
+		setGenotype(Genotype.createGenome());
 		createId();
-		neighbors= new ArrayList<Genotype>();
-		nn= new ArrayList<String>();
 	}
 	
-	public AbstractBacterium(State s, BacteriumParameters p, Genotype g) {
+	public AbstractBacterium(State s, BacteriumParameters p, int g) {
+		simulation= SimulationContext.getInstance();
+		store= simulation.getStore();
+		slot= StepContext.current().allocate((Bacterium) this);
 		setState(s);
 		setParameters(p);
 		setGenotype(g);
 		createId();
-		neighbors= new ArrayList<Genotype>();
-		nn= new ArrayList<String>();
+	}
+	
+	/**
+	 * Binds a view to a slot already filled by the store, as when restoring a checkpoint
+	 * 
+	 * @param p		The agent parameter collection
+	 * @param slot	The agent slot
+	 */
+	AbstractBacterium(BacteriumParameters p, int slot) {
+		simulation= SimulationContext.getInstance();
+		store= simulation.getStore();
+		this.slot= slot;
+		setParameters(p);
+	}
+	
+	/**
+	 * @return the slot assigned by the agent store, -1 once released
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * @return the slot assigned by the agent store, for the accessors of the
+	 * per cell state, which must not be used once the agent is released
+	 */
+	final int slot() {
+		if(slot < 0)
+			throw new IllegalStateException("Agent released from the store, its state is gone");
+		return slot;
+	}
+
+	/**
+	 * Releases the store slot when the agent leaves the simulation
+	 */
+	void release() {
+		if(slot < 0) return;
+		store.release(slot);
+		slot= -1;
 	}
 	
 	/**
 	 * @return the state0
 	 */
 	public State getState0() {
-		return state0;
+		return BacteriumStore.toState(store.state0[slot()]);
 	}
 
 	/**
 	 * @param state0 the state0 to set
 	 */
 	private void setState0(State s) {
-		if(this.state0 == null)
-			this.state0 = s;
+		if(store.state0[slot()] < 0)
+			store.state0[slot()] = (byte) s.ordinal();
 	}
 
 	/**
 	 * @return the state
 	 */
 	public State getState() {
-		return state;
+		return BacteriumStore.toState(store.state[slot()]);
 	}
 
 	/**
 	 * @param state the state to set
 	 */
 	public void setState(State s) {
-		if(this.state == null)
+		if(store.state[slot()] < 0)
 			setState0(s);
-		this.state = s;
+		store.state[slot()] = (byte) s.ordinal();
 		MyPopulationBookkeeper.getInstance().populationAccount(getState0(), getState());
 	}
 	
@@ -102,14 +123,20 @@ public abstract class AbstractBacterium {
 	 * @return the starved
 	 */
 	public boolean isStarved() {
-		return starved;
+		return store.starved[slot()];
 	}
 
 	/**
+	 * Starved cells leave the active set, so they are no longer stepped
+	 * 
 	 * @param starved the starved to set
 	 */
 	public void setStarved(boolean starved) {
-		this.starved = starved;
+		store.starved[slot()] = starved;
+		if(starved)
+			StepContext.current().deactivate((Bacterium) this);
+		else
+			store.activate(slot);
 	}
 	
 	/**
@@ -133,7 +160,7 @@ public abstract class AbstractBacterium {
 	 * @return The actual number of real bacterial cells 
 	 */
 	public int getIndividuals() {
-		return individuals;
+		return store.individuals[slot()];
 	}
 
 	/**
@@ -142,7 +169,7 @@ public abstract class AbstractBacterium {
 	 * @param v Number of individuals
 	 */
 	public void setIndividuals(int v) {
-		this.individuals = v;
+		store.individuals[slot()] = v;
 	}
 	 
 	/**
@@ -150,7 +177,7 @@ public abstract class AbstractBacterium {
 	 * 
 	 */
 	public void incrementIndividuals() {
-		this.individuals++;
+		store.individuals[slot()]++;
 	}
 	
 	/**
@@ -159,22 +186,22 @@ public abstract class AbstractBacterium {
 	 * @return The number of conjugative events.
 	 */
 	public int getConjugations() {
-		return conjugations;
+		return store.conjugations[slot()];
 	}
 
 	/**
 	 * Increments the number of conjugative events
 	 */
 	public void incConjugations() {
-		this.conjugations++;
+		store.conjugations[slot()]++;
 	}
 	
 	public int getEncounters() {
-		return encounters;
+		return store.encounters[slot()];
 	}
 	
 	public void incEncounters() {
-		this.encounters++;
+		store.encounters[slot()]++;
 	}
 	
 	public double getGammaL() {
@@ -201,14 +228,28 @@ public abstract class AbstractBacterium {
 			MyPopulationBookkeeper.getInstance().incrementCt();
 	}
 	
+	/**
+	 * The set of met cells is only allocated for cells which actually
+	 * look for mates, i.e. conjugative hosts.
+	 * 
+	 * @return the set of cells already encountered
+	 */
+	private EncounterSet getEncounterSet() {
+		EncounterSet v= store.encounterSets[slot()];
+		if(v == null) {
+			v= EncounterSet.create();
+			store.encounterSets[slot()]= v;
+		}
+		return v;
+	}
+	
 	/**
 	 * Updates both local and global encounter account
 	 * 
 	 * @param b The neighbor cell
 	 */
 	public void updateEncounters(Bacterium b) {
-		if(!neighbors.contains(b.getId())) {
-			neighbors.add(b.getId());
+		if(getEncounterSet().add(b.getId())) {
 			incEncounters();
 			MyPopulationBookkeeper.getInstance().incrementE();
 			switch(getState()) {
@@ -226,12 +267,11 @@ public abstract class AbstractBacterium {
 	}
 	
 	public void updateEncounters1(Bacterium b) {
-		if(!nn.contains(b.getId().getGenome())) {
-			nn.add(b.getId().getGenome());
+		if(getEncounterSet().add(b.getId())) {
 			incEncounters();
 			MyPopulationBookkeeper.getInstance().incrementE();
 		} else {
-			System.out.println("Already present= " + b.getId().getGenome());
+			System.out.println("Already present= " + b.getId());
 		}
 	}
 	
@@ -274,57 +314,63 @@ public abstract class AbstractBacterium {
 	 * @return the width
 	 */
 	public double getWidth() {
-		return width;
+		return store.width[slot()];
 	}
 
 	/**
 	 * @param width the width to set
 	 */
 	public void setWidth(double width) {
-		this.width = width;
+		store.width[slot()] = width;
 	}
 
 	/**
 	 * @return the length
 	 */
 	public double getLength() {
-		return length;
+		return store.length[slot()];
 	}
 
 	/**
 	 * @param length the length to set
 	 */
 	public void setLength(double length) {
-		this.length = length;
+		store.length[slot()] = length;
 	}
 
 	/**
-	 * @return the genotype
+	 * @return the clone identifier
 	 */
-	public Genotype getGenotype() {
-		return genotype;
+	public int getGenotype() {
+		return store.clone[slot()];
 	}
 
 	/**
-	 * @param genotype the genotype to set
+	 * @param genotype the clone identifier to set
+	 */
+	public void setGenotype(int genotype) {
+		store.clone[slot()] = genotype;
+	}
+	
+	/**
+	 * @return the printable genome of the clone
 	 */
-	public void setGenotype(Genotype genotype) {
-		this.genotype = genotype;
+	public String getGenome() {
+		return Genotype.getGenome(getGenotype());
 	}
 	
 	/**
 	 * @return the Agent Id
 	 */
-	public Genotype getId() {
-		return Id;
+	public long getId() {
+		return store.id[slot()];
 	}
 
 	/**
-	 * @param v the genotype to set id
+	 * Assigns a new agent id
 	 */
 	private void createId() {
-		this.Id= new Genotype();
-		this.Id.createGenome();
+		store.id[slot()]= StepContext.current().createId();
 	}
 	
 }
@@ -2,22 +2,10 @@ package org.holistic.bactocom;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 
 import org.jgroups.blocks.UpdateException;
 
-import cern.jet.random.Normal;
-import cern.jet.random.Poisson;
-import cern.jet.random.Uniform;
-import repast.simphony.context.Context;
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.Schedule;
-import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.random.RandomHelper;
-import repast.simphony.space.grid.Grid;
-import repast.simphony.space.grid.GridPoint;
-import repast.simphony.util.ContextUtils;
-import repast.simphony.valueLayer.GridValueLayer;
 
 
 /**
@@ -29,22 +17,7 @@ import repast.simphony.valueLayer.GridValueLayer;
  *
  */
 public class Bacterium extends AbstractBacterium {
-	private boolean OVERLAPCELLS= false;
-	// Internal state variables
-	private double t0= 0;						// The t0 of inter-division time
-	private double G= 0;						
-	private double Zg;							// The generation time random variable
-	private double Gc;							// Estimated point of cell cycle for division
-	private int EEX= 0;							// Entry Exclusion generations settlement 						
-	
-	// Random generators
-	private Poisson P= null;
-	private Normal Z= null;
-	private Normal ZGamma= null;
-	private Uniform U= null;
-	
-	// Parameters 
-	private double gamma0= 0;
+	private static final boolean OVERLAPCELLS= false;
 	
 	/**
 	 * Construct an agent with a default genotype
@@ -63,11 +36,21 @@ public class Bacterium extends AbstractBacterium {
 	 * @param s	Conjugative state
 	 * @param p Parameter collection
 	 */
-	public Bacterium(State s, BacteriumParameters p, Genotype g) {
+	public Bacterium(State s, BacteriumParameters p, int g) {
 		super(s, p, g);
 		init(s,p);		
 	}
 	
+	/**
+	 * Construct the view of a restored agent, its state is already on the store
+	 * 
+	 * @param p		Parameter collection
+	 * @param slot	The agent slot
+	 */
+	Bacterium(BacteriumParameters p, int slot) {
+		super(p, slot);
+	}
+	
 	/**
 	 * Constructor helper method
 	 * 
@@ -75,47 +58,52 @@ public class Bacterium extends AbstractBacterium {
 	 * @param p Parameter collection
 	 */
 	private void init(State s, BacteriumParameters p) {
-		t0= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		int slot= slot();
+		store.t0[slot]= simulation.getTick();
 
-		switch(s) {
-			case R:
-				G= (Integer) p.getValue(BacteriumParameters.Gr);
-				break;
-			case D:
-				G= (Integer) p.getValue(BacteriumParameters.Gd);
-				break;
-			case T:
-				G= (Integer) p.getValue(BacteriumParameters.Gt);
-				break;	
-		}
-		gamma0= (Double) p.getValue(BacteriumParameters.GAMMA);
-		
-		Z= (Normal) RandomHelper.getDistribution(MyParameters.RANDOM_DIVISION);
-		ZGamma= (Normal) RandomHelper.getDistribution(MyParameters.RANDOM_GAMMA0);
-		P= (Poisson) RandomHelper.getDistribution(MyParameters.RANDOM_CONJUGATION);
-		U= (Uniform) RandomHelper.getDistribution(MyParameters.RANDOM_UNIFORM1);
+		store.G[slot]= p.getGenerationTime(s);
+		store.gamma0[slot]= p.getGamma();
 		
+		scheduleDivision(store.t0[slot]);
+	}
+	
+	/**
+	 * Starts a new cell cycle, the generation time is sampled once per cycle
+	 * and the cell is queued for its division time.
+	 * 
+	 * @param t The cycle start time
+	 */
+	private void scheduleDivision(double t) {
+		int slot= slot();
+		double G= store.G[slot];
+		store.t0[slot]= t;
 		//Zg= BacteriumEquations.eqnZ(G, G * 0.35D, Z.nextDouble());
-		Zg= BacteriumEquations.eqnZ(G, G * 0.25D, Z.nextDouble());
+		store.Zg[slot]= BacteriumEquations.eqnZ(G, G * 0.25D, StepContext.current().nextDivision());
+		store.due[slot]= t + store.Zg[slot];
+		StepContext.current().queueDivision(this);
 	}
 	
 	public double getGc() {
-		Gc= Zg * U.nextDouble();
-		return Gc;
+		int slot= slot();
+		store.Gc[slot]= store.Zg[slot] * StepContext.current().nextUniform();
+		return store.Gc[slot];
 	}
 	
+	/**
+	 * @return the generation time of the current cell cycle
+	 */
 	public double getZg() {
-		Zg= BacteriumEquations.eqnZ(G, G * 0.25D, Z.nextDouble());
-		return Zg;
+		return store.Zg[slot()];
 	}
 	
 	public double getZGamma() {
-		double v= BacteriumEquations.eqnZ(gamma0, gamma0 * 0.1D, ZGamma.nextDouble());
+		double gamma0= store.gamma0[slot()];
+		double v= BacteriumEquations.eqnZ(gamma0, gamma0 * 0.1D, StepContext.current().nextGamma());
 		return v;
 	}
 	
 	public double getC() {
-		return(P.nextInt());
+		return(StepContext.current().nextConjugation());
 	}
 	
 	/**
@@ -134,51 +122,63 @@ public class Bacterium extends AbstractBacterium {
 	 * 
 	 */
 	public void procLag() {
-		double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		double t= simulation.getTick();
 		//double delta= t - t0;
 		
-		double lag= BacteriumEquations.getLagFromG(G);
-		double u= (1 + (lag - 1)) * U.nextDouble();
+		double lag= BacteriumEquations.getLagFromG(store.G[slot()]);
+		double u= (1 + (lag - 1)) * StepContext.current().nextUniform();
 		if( t <  u ) {
-			t0= t;
+			scheduleDivision(t);
 		}
 	}
 	
+	/**
+	 * Brings a starved cell back to the active set once nutrient is
+	 * available again on its neighborhood, it starts a new cell cycle.
+	 */
+	public void wake() {
+		if(!isStarved()) return;
+		setStarved(false);
+		scheduleDivision(getTime());
+	}
+	
 	public void initEeX() {
-		EEX= (int) ( (2 + (5 - 2)) * U.nextDouble() ); 
+		store.EEX[slot()]= (int) ( (2 + (5 - 2)) * StepContext.current().nextUniform() ); 
 	}
 	
 	public int getEeX() {
-		return EEX;
+		return store.EEX[slot()];
 	}
 	
 	public void setEeX(int v) {
-		EEX= v;
+		store.EEX[slot()]= v;
 	}
 	
 	/**
 	 * The cellular division process
 	 */
 	public void procDivision() {
-		double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		double delta= t - t0;
+		double t= simulation.getTick();
 		//System.out.println("donors= " + MyPopulationBookkeeper.getInstance().getD());
-		if( delta >= getZg() ) {
-			this.t0= t;
-			List<GridPoint> emptySites= null;
+		if( t >= store.due[slot()] ) {
+			scheduleDivision(t);
+			OccupancyLattice lattice= simulation.getLattice();
+			int site= lattice.getSite(this);
+			int[] emptyBuffer= StepContext.current().emptyBuffer;
+			
+			// Interior cells have nowhere to place a daughter
+			if(!OVERLAPCELLS && !lattice.isFrontier(site)) return;
 		
 			for(int i= 1; i<=3; i++) {
-				emptySites= MyNeighborhood.getEmptyMooreNeighborhood(this,1);
+				int n= MyNeighborhood.getEmptyMooreSites(site, 1, emptyBuffer);
 			
-				if (emptySites.size() > 0) {
+				if (n > 0) {
 					if(procUptake() <= 0) {
 						setStarved(true);
 						return;
 					}
 					Bacterium d= getDaughter();
-					int x= emptySites.get(0).getX();
-					int y= emptySites.get(0).getY();
-					addToGrid(d, x, y);
+					addToGrid(d, lattice.getX(emptyBuffer[0]), lattice.getY(emptyBuffer[0]));
 					break;
 				} else {
 					if(OVERLAPCELLS) {
@@ -186,11 +186,9 @@ public class Bacterium extends AbstractBacterium {
 							setStarved(true);
 							return;
 						}
-						List<GridPoint> sites = MyNeighborhood.getMooreNeighborhood(this,1,true);
+						int p= MyNeighborhood.getRandomMooreSite(site, 1, true);
 						Bacterium d= getDaughter();
-						int x= sites.get(0).getX();
-						int y= sites.get(0).getY();	
-						addToGrid(d, x, y);
+						addToGrid(d, lattice.getX(p), lattice.getY(p));
 						break;
 					}
 				}
@@ -204,7 +202,7 @@ public class Bacterium extends AbstractBacterium {
 	 * @return true for conjugative cells, false for recipient cells 
 	 */
 	public boolean isConjugativeHost() {
-		return(getState() == State.D || (getState() == State.T && !(Boolean) getParameters().getValue(BacteriumParameters.isOnlyOriT)));
+		return(getState() == State.D || (getState() == State.T && !getParameters().isOnlyOriT()));
 	}
 	
 	public boolean isDonor() {
@@ -212,16 +210,16 @@ public class Bacterium extends AbstractBacterium {
 	}
 	
 	public boolean isConjugativeT() {
-		return((getState() == State.T && !(Boolean) getParameters().getValue(BacteriumParameters.isOnlyOriT)));
+		return((getState() == State.T && !getParameters().isOnlyOriT()));
 	}
 	
 	public double getTime() {
-		double v= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		double v= simulation.getTick();
 		return v;
 	}
 	
 	public double getDelta() {
-		double v= getTime() - t0;
+		double v= getTime() - store.t0[slot()];
 		return v;
 	}
 	
@@ -237,7 +235,7 @@ public class Bacterium extends AbstractBacterium {
 			if(b == null) return;
 			updateEncounters(b);
 
-			if(getGammaL() > this.gamma0) return;
+			if(getGammaL() > store.gamma0[slot()]) return;
 			if(isGreaterThanExperimental()) return;
 			
 			b.setState(State.T);
@@ -304,26 +302,21 @@ public class Bacterium extends AbstractBacterium {
 	/**
 	 * Conjugation process.
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void procConjugation10() {
 
 		if( isConjugativeHost() ) {
 
-			double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-			double delta= t - t0;
+			double t= simulation.getTick();
+			double delta= t - store.t0[slot()];
 			
 			if(delta < (getZg() * 0.6)) return;
 			
 			// Conjugation code
-			Grid grid = (Grid) ContextUtils.getContext(this).getProjection("Grid");
-			List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, 1,false);
-			for(GridPoint pt : neighbors) {
-				Bacterium b;
-				List<Bacterium> bl= MyNeighborhood.ListFromIterator(grid.getObjectsAt(pt.getX(),pt.getY()).iterator());
-				if(bl.size() > 0)
-					b= bl.get(0);
-				else
-					b= (Bacterium) grid.getObjectAt(pt.getX(),pt.getY());
+			OccupancyLattice lattice= simulation.getLattice();
+			int[] siteBuffer= StepContext.current().siteBuffer;
+			int n= MyNeighborhood.getMooreSites(lattice.getSite(this), 1, false, siteBuffer);
+			for(int i= 0; i< n; i++) {
+				Bacterium b= lattice.get(siteBuffer[i]);
 				
 				// No neighbor to plasmid transfer 
 				if(b == null) continue;
@@ -337,7 +330,7 @@ public class Bacterium extends AbstractBacterium {
 					
 					
 					//if(getConjugations() > C) return;
-					if(getConjugations() > P.nextInt()) return;
+					if(getConjugations() > getC()) return;
 					
 			 		
 					b.setState(State.T);
@@ -350,24 +343,16 @@ public class Bacterium extends AbstractBacterium {
 		
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	/**
+	 * Picks the occupant of a random site of the cell's Moore neighborhood.
+	 * 
+	 * @param s The required state
+	 * @return The neighbor cell or null when the site is empty or the state does not match 
+	 */
 	public Bacterium pickRandomNeighbor(State s) {
-		Bacterium b= null;
-	
-		Grid grid = (Grid) ContextUtils.getContext(this).getProjection("Grid");
-		
-		List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, 1,false);
-		for(GridPoint pt : neighbors) {
+		OccupancyLattice lattice= simulation.getLattice();
 		
-			List<Bacterium> bl= MyNeighborhood.ListFromIterator(grid.getObjectsAt(pt.getX(),pt.getY()).iterator());
-			if(bl.size() > 0)
-				b= bl.get(0);
-			else
-				b= (Bacterium) grid.getObjectAt(pt.getX(),pt.getY());
-			
-			// No neighbor  
-			if(b == null || b.getState() != s) continue;
-		}
+		Bacterium b= lattice.get(MyNeighborhood.getRandomMooreSite(lattice.getSite(this), 1, false));
 		b= (b == null || b.getState() != s ? null : b);
 		return b;
 	}
@@ -375,7 +360,7 @@ public class Bacterium extends AbstractBacterium {
 	public boolean isGreaterThanExperimental() {
 		boolean v= false;
 		if(MyParameters.isAutoFit()) {
-			ModelRatesHelper.getInstance().gatherData();
+			// The tick metrics snapshot, taken at the end of the previous tick
 			double error= ModelRatesHelper.getInstance().getFitnessError();
 			v= (error < 0 ? true : false);
 		}
@@ -388,51 +373,42 @@ public class Bacterium extends AbstractBacterium {
 	 * "BacSim, a simulator for individual-based modelling of bacterial colony growth"
 	 * 1998, Jan-Ulrich Kreft, Ginger Booth and Julian W. T. Wimpenny
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void procShoving() {
-		Context context = ContextUtils.getContext(this);
-		Grid grid = (Grid) context.getProjection("Grid");
-		GridPoint mypt= grid.getLocation(this);
+		OccupancyLattice lattice= simulation.getLattice();
+		int site= lattice.getSite(this);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
 
 		double k= 1.30D; // Maximun overlap parameter
 		double md= 3;
 		double ss= 0D;
-		double[] u= new double[mypt.dimensionCount()];
-		double[] shoving= new double[mypt.dimensionCount()];
-		
-		// Initialization of shoving relaxation vector
-		for(int i= 0; i< mypt.dimensionCount(); i++) {
-			shoving[i]= 0D;
-		}
+		double sx= 0D;	// Shoving relaxation vector
+		double sy= 0D;
 		
-		List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, 1, false);
-		for(GridPoint pt : neighbors) {
-			double d= grid.getDistance(mypt, pt);
-			List<Bacterium> bl= MyNeighborhood.ListFromIterator(grid.getObjectsAt(pt.getX(),pt.getY()).iterator());
-			Bacterium b = (bl.size() > 0 ? b= bl.get(0) : (Bacterium) grid.getObjectAt(pt.getX(),pt.getY()));
-			if(b == null) continue;
-			double r= getLength();
-			double r1= b.getLength();
-			
-			if( (k*r + r1) < d) return;
-			ss= (k*r + r1 - d)/2;
-			u= MyNeighborhood.getUnitVector(this, mypt, pt);
-			
-			for(int i= 0; i< mypt.dimensionCount(); i++) {
-				shoving[i]+= ss * u[i];
+		for(int dx= -1; dx<= 1; dx++) {
+			for(int dy= 1; dy >= -1; dy--) {
+				if(dx == 0 && dy == 0) continue;
+				Bacterium b= lattice.get(lattice.site(x + dx, y + dy));
+				if(b == null) continue;
+				double d= Math.sqrt(dx * dx + dy * dy);
+				double r= getLength();
+				double r1= b.getLength();
+				
+				if( (k*r + r1) < d) return;
+				ss= (k*r + r1 - d)/2;
+				
+				// The unit vector points from the neighbor towards this cell
+				sx+= ss * (-dx / d);
+				sy+= ss * (-dy / d);
 			}
 		}
 		
-		int[] newLocation= new int[mypt.dimensionCount()];
-		for(int i= 0; i< mypt.dimensionCount(); i++) {
-			if(Math.abs(shoving[i]) > md)
-				return;
-			newLocation[i]= (int) Math.round((mypt.getCoord(i) + shoving[i]));
-		}
+		if(Math.abs(sx) > md || Math.abs(sy) > md)
+			return;
+		int nx= (int) Math.round(x + sx);
+		int ny= (int) Math.round(y + sy);
 		
-		boolean moved= grid.moveTo((Object) this, newLocation);
-		if(!moved) 
-			context.remove(this);
+		StepContext.current().moveTo(this, nx, ny);
 	}
 	
 	/**
@@ -443,8 +419,8 @@ public class Bacterium extends AbstractBacterium {
 	 * @return l the estimated length 
 	 */
 	public double getLength() {
-		double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		double delta= t - t0;
+		double t= simulation.getTick();
+		double delta= t - store.t0[slot()];
 		double l= BacteriumEquations.eqnSimpleLinearFit(delta, getZg(), BacteriumParameters.MIN_LENGTH/2, BacteriumParameters.MAX_LENGTH/2);
 		return l;
 	}
@@ -455,19 +431,9 @@ public class Bacterium extends AbstractBacterium {
 	 * @param r the required calculated uptake value
 	 * @return 	the real uptake which depends on nutrient availability on current grid cell
 	 */
-	@SuppressWarnings("rawtypes")
 	public double gridUptake(double r) {
-		double v= 0;
-		GridValueLayer vl = (GridValueLayer)ContextUtils.getContext(this).getValueLayer("Nutrients");
-		Grid grid = (Grid)ContextUtils.getContext(this).getProjection("Grid");
-		GridPoint pt= grid.getLocation(this); 
-		
-		double c= vl.get(pt.getX(),pt.getY());
-		if(c > 0) {
-			v=(c >= r ? r : c);
-			vl.set(c-v, pt.toIntArray(null));
-		} 
-		return v;
+		int site= simulation.getLattice().getSite(this);
+		return simulation.getNutrients().take(site, r);
 	}
 	
 	/**
@@ -480,15 +446,15 @@ public class Bacterium extends AbstractBacterium {
 	 */
 	public double gridDiffusion(double r) {
 		double v= 0;
-		GridValueLayer vl = (GridValueLayer) ContextUtils.getContext(this).getValueLayer("Nutrients");
+		NutrientField field= simulation.getNutrients();
+		int site= simulation.getLattice().getSite(this);
+		int[] siteBuffer= StepContext.current().siteBuffer;
 		
 		for(int i= 1; i<= 3; i++) {
-			List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, i, false);
-			for(GridPoint p : neighbors) {
-				double c= vl.get(p.getX(),p.getY());
-				if(c > 0) {
-					v=(c >= r ? r : c);
-					vl.set(c-v, p.toIntArray(null));
+			int n= MyNeighborhood.getMooreSites(site, i, false, siteBuffer);
+			for(int j= 0; j< n; j++) {
+				if(field.get(siteBuffer[j]) > 0) {
+					v= field.take(siteBuffer[j], r);
 					break;
 				} 
 			}
@@ -496,60 +462,64 @@ public class Bacterium extends AbstractBacterium {
 		return(v);
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public int countByState(State s) {
 		int c= 0;
 		
-		Grid grid = (Grid) ContextUtils.getContext(this).getProjection("Grid");
-		List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, 1,false);
-		for(GridPoint pt : neighbors) {
-			Bacterium b;
-			List<Bacterium> bl= MyNeighborhood.ListFromIterator(grid.getObjectsAt(pt.getX(),pt.getY()).iterator());
-			b= (bl.size() > 0 ? bl.get(0) : (Bacterium) grid.getObjectAt(pt.getX(),pt.getY()));  
-			// No neighbor cells 
-			if(b == null) continue;
-			if(b.getState() == s)
-				c++;
+		OccupancyLattice lattice= simulation.getLattice();
+		int site= lattice.getSite(this);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
+		for(int dx= -1; dx<= 1; dx++) {
+			for(int dy= 1; dy >= -1; dy--) {
+				if(dx == 0 && dy == 0) continue;
+				Bacterium b= lattice.get(lattice.site(x + dx, y + dy));
+				// No neighbor cells 
+				if(b == null) continue;
+				if(b.getState() == s)
+					c++;
+			}
 		}
 		return c;
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public int countUnrelated() {
 		int v= 0;
 		
-		Grid grid = (Grid) ContextUtils.getContext(this).getProjection("Grid");
-		List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, 1,false);
-		for(GridPoint pt : neighbors) {
-			Bacterium b;
-			List<Bacterium> bl= MyNeighborhood.ListFromIterator(grid.getObjectsAt(pt.getX(),pt.getY()).iterator());
-
-			b= (bl.size() > 0 ? bl.get(0) : (Bacterium) grid.getObjectAt(pt.getX(),pt.getY()));  
-			// No neighbor cells 
-			if(b == null) continue;
-			
-			if( !getGenotype().isEqual(b.getGenotype()) ) {
-				v++;
+		OccupancyLattice lattice= simulation.getLattice();
+		int site= lattice.getSite(this);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
+		for(int dx= -1; dx<= 1; dx++) {
+			for(int dy= 1; dy >= -1; dy--) {
+				if(dx == 0 && dy == 0) continue;
+				Bacterium b= lattice.get(lattice.site(x + dx, y + dy));
+				// No neighbor cells 
+				if(b == null) continue;
+				
+				if( getGenotype() != b.getGenotype() ) {
+					v++;
+				}
 			}
 		}
 		return v;
 	}
 	
 	public boolean isNutrientAvailable() {
-		boolean b= false;
-		GridValueLayer vl = (GridValueLayer) ContextUtils.getContext(this).getValueLayer("Nutrients");
+		NutrientField field= simulation.getNutrients();
+		OccupancyLattice lattice= simulation.getLattice();
+		int site= lattice.getSite(this);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
 		
-		for(int i= 1; i<= 4; i++) {
-			List<GridPoint> neighbors = MyNeighborhood.getMooreNeighborhood(this, i, true);
-			for(GridPoint p : neighbors) {
-				double c= vl.get(p.getX(),p.getY());
-				if(c > 0) {
-					b= true;
-					break;
-				}
-			}
+		// The larger neighborhood contains all the smaller ones, the visiting order is irrelevant here
+		int[] ox= MyNeighborhood.getOffsetsX(4, true);
+		int[] oy= MyNeighborhood.getOffsetsY(4, true);
+		for(int i= 0; i< ox.length; i++) {
+			int p= lattice.site(x + ox[i], y + oy[i]);
+			if(field.get(p) > 0)
+				return true;
 		}
-		return b;
+		return false;
 	}
 	
 	/**
@@ -558,7 +528,7 @@ public class Bacterium extends AbstractBacterium {
 	 * @return daughter A new Bacterium instance
 	 */
 	private Bacterium getDaughter() {
-		EEX--;
+		store.EEX[slot()]--;
 		Bacterium daughter= new Bacterium(getState(), getParameters(), getGenotype());
 		daughter.setEeX(getEeX());
 		return daughter;
@@ -571,22 +541,14 @@ public class Bacterium extends AbstractBacterium {
 	 * @param x
 	 * @param y
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private void addToGrid(Bacterium daughter, int x, int y) {
-		Context context = ContextUtils.getContext(this);
-		Grid grid = (Grid) context.getProjection(MyParameters.GRID);
-		context.add(daughter);
-		boolean moved= grid.moveTo(daughter,x,y);
-		if(!moved) {
-			System.out.println("Error moving in division!!");
-			context.remove(daughter);
-		}
+		StepContext.current().addToGrid(this, daughter, x, y);
 	}
 		
 	/**
-	 * The stepDivision method performs the cellular division logic  
+	 * The stepDivision method performs the cellular division logic,
+	 * the step methods are run by the TickScheduler phases.
 	 */
-	@ScheduledMethod(start=1,interval=1,shuffle=true)
 	public void stepDivision() {
 		if(isStarved()) return;
 		//procLag();
@@ -596,7 +558,6 @@ public class Bacterium extends AbstractBacterium {
 	/**
 	 * The stepShoving method performs the shoving relaxation logic  
 	 */
-	@ScheduledMethod(start=1,interval=1,shuffle=true)
 	public void stepShoving() {
 		if(isStarved()) return;
 		procShoving();
@@ -607,13 +568,11 @@ public class Bacterium extends AbstractBacterium {
 	 * and the conjugative logic.  
 	 *   
 	 */
-	@ScheduledMethod(start=1,interval=1,shuffle=true)
 	public void stepConjugation() {
 		if(isStarved()) return;
 		procConjugation2();
 	}
 	
-	@ScheduledMethod(start=1,interval=1,shuffle=true)
 	public void stepSuperInfection() {
 		if(isStarved()) return;
 		procSuperInfection();
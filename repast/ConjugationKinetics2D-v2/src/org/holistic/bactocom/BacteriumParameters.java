@@ -13,4 +13,18 @@ public interface BacteriumParameters {
 	
 	public Object setValue(String k, Object v);
 	public Object getValue(String k);
+	
+	// Typed access to the same values
+	public double getGamma();
+	public int getGr();
+	public int getGd();
+	public int getGt();
+	public boolean isOnlyOriT();
+	public String getEquation();
+	
+	/**
+	 * @param s The cell state
+	 * @return the mean generation time for the state
+	 */
+	public int getGenerationTime(State s);
 }
@@ -7,18 +7,39 @@ public class BacteriumParamtersFactory {
 	public static BacteriumParameters getParameters() {
 		return BacteriumParametersImpl.getInstance();
 	}
+	
+	/**
+	 * Creates the mutable parameter map of a run, see ModelRun
+	 */
+	static BacteriumParameters newRunParameters() {
+		return new BacteriumParametersImpl();
+	}
+	
+	/**
+	 * Creates an immutable parameter set, the model builds one per run
+	 * 
+	 * @param gamma		The intrinsic conjugation rate
+	 * @param gr		Recipient generation time
+	 * @param gd		Donor generation time
+	 * @param gt		Transconjugant generation time
+	 * @param onlyOriT	Whether transconjugants only carry the oriT
+	 * @param equation	The experimental curve
+	 * @return the parameters
+	 */
+	public static BacteriumParameters newParameters(double gamma, int gr, int gd, int gt, boolean onlyOriT, String equation) {
+		return new ImmutableBacteriumParameters(gamma, gr, gd, gt, onlyOriT, equation);
+	}
 }
 
 
 class BacteriumParametersImpl implements BacteriumParameters {
 	private Map<String, Object> parameters= new HashMap<String, Object>();
-	private static BacteriumParametersImpl instance= new BacteriumParametersImpl(); 
 
-	private BacteriumParametersImpl() {
+	BacteriumParametersImpl() {
 	}
 	
-	public static BacteriumParametersImpl getInstance() {
-		return instance;
+	public static BacteriumParameters getInstance() {
+		return ModelRun.current().parameters;
 	}
 	
 	@Override
@@ -35,4 +56,121 @@ class BacteriumParametersImpl implements BacteriumParameters {
 		return v;
 	}
 
+	@Override
+	public double getGamma() {
+		return (Double) getValue(GAMMA);
+	}
+
+	@Override
+	public int getGr() {
+		return (Integer) getValue(Gr);
+	}
+
+	@Override
+	public int getGd() {
+		return (Integer) getValue(Gd);
+	}
+
+	@Override
+	public int getGt() {
+		return (Integer) getValue(Gt);
+	}
+
+	@Override
+	public boolean isOnlyOriT() {
+		return (Boolean) getValue(isOnlyOriT);
+	}
+
+	@Override
+	public String getEquation() {
+		return (String) getValue(EQUATION);
+	}
+
+	@Override
+	public int getGenerationTime(State s) {
+		switch(s) {
+			case D: return getGd();
+			case T: return getGt();
+			default: return getGr();
+		}
+	}
+
+}
+
+
+/**
+ * Final field parameter set. The string keys are still answered by getValue,
+ * but the values cannot be changed.
+ */
+final class ImmutableBacteriumParameters implements BacteriumParameters {
+	private final double gamma;
+	private final int gr;
+	private final int gd;
+	private final int gt;
+	private final boolean onlyOriT;
+	private final String equation;
+	
+	ImmutableBacteriumParameters(double gamma, int gr, int gd, int gt, boolean onlyOriT, String equation) {
+		this.gamma= gamma;
+		this.gr= gr;
+		this.gd= gd;
+		this.gt= gt;
+		this.onlyOriT= onlyOriT;
+		this.equation= equation;
+	}
+
+	@Override
+	public Object setValue(String k, Object v) {
+		throw new UnsupportedOperationException("Immutable bacterium parameters: " + k);
+	}
+
+	@Override
+	public Object getValue(String k) {
+		if(GAMMA.equals(k)) return gamma;
+		if(Gr.equals(k)) return gr;
+		if(Gd.equals(k)) return gd;
+		if(Gt.equals(k)) return gt;
+		if(isOnlyOriT.equals(k)) return onlyOriT;
+		if(EQUATION.equals(k)) return equation;
+		return null;
+	}
+
+	@Override
+	public double getGamma() {
+		return gamma;
+	}
+
+	@Override
+	public int getGr() {
+		return gr;
+	}
+
+	@Override
+	public int getGd() {
+		return gd;
+	}
+
+	@Override
+	public int getGt() {
+		return gt;
+	}
+
+	@Override
+	public boolean isOnlyOriT() {
+		return onlyOriT;
+	}
+
+	@Override
+	public String getEquation() {
+		return equation;
+	}
+
+	@Override
+	public int getGenerationTime(State s) {
+		switch(s) {
+			case D: return gd;
+			case T: return gt;
+			default: return gr;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,403 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays agent store for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The per cell state is kept in parallel primitive arrays indexed by agent slot
+ * and the Bacterium instances are thin views holding their slot. Released slots
+ * go to a free list and are reused first, so the live agents are on the range
+ * [0, size()) with the holes of the slots not reused yet.
+ * The store also keeps the active set, the live agents which are still stepped
+ * on every tick (starved cells are dropped from it until they are woken up).
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class BacteriumStore {
+	private final static int INITIAL_CAPACITY= 1024;
+	private final static State[] STATES= State.values();
+
+	private int size= 0;			// Number of slots ever allocated
+	private int count= 0;			// Number of live agents
+	private int[] free;				// Released slots available for reuse
+	private int nfree= 0;
+	private int[] active;			// The active slots, unordered
+	private int nactive= 0;
+	private int[] activePos;		// Position of each slot on the active set, -1 when inactive
+
+	Bacterium[] agents;				// The agent views indexed by slot
+	long[] id;						// The agent identifier
+	int[] clone;					// The clone (genotype) identifier
+
+	// Vegetative state variables
+	double[] t0;					// The t0 of inter-division time
+	double[] G;						// The average generation time
+	double[] Zg;					// The generation time random variable
+	double[] Gc;					// Estimated point of cell cycle for division
+	double[] due;					// The next division time, t0 + Zg
+	double[] gamma0;				// The intrinsic conjugation rate
+	double[] width;
+	double[] length;
+
+	// Conjugative state variables
+	byte[] state0;					// The initial cell state ordinal, -1 when unset
+	byte[] state;					// The current cell state ordinal, -1 when unset
+	int[] EEX;						// Entry Exclusion generations settlement
+
+	// Account variables
+	int[] individuals;				// Number of individuals which the super-individual represents
+	int[] encounters;				// Number of D|T to R encounters
+	int[] conjugations;				// Number of conjugative events performed by a single cell
+	boolean[] starved;				// Cell is no longer growing due to nutrient exhaustion
+	EncounterSet[] encounterSets;	// Cells already met, lazily allocated
+
+	BacteriumStore() {
+		reset();
+	}
+
+	public static BacteriumStore getInstance() {
+		return ModelRun.current().store;
+	}
+
+	/**
+	 * Drops every agent and shrinks the store to its initial capacity
+	 */
+	public void reset() {
+		size= 0;
+		count= 0;
+		nfree= 0;
+		nactive= 0;
+		free= new int[INITIAL_CAPACITY];
+		allocateArrays(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return the number of slots in use, including released ones
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of live agents
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the number of released slots waiting for reuse
+	 */
+	int freeCount() {
+		return nfree;
+	}
+
+	public int capacity() {
+		return agents.length;
+	}
+
+	/**
+	 * @return the agent on slot or null for released slots
+	 */
+	public Bacterium get(int slot) {
+		return agents[slot];
+	}
+
+	public boolean isAlive(int slot) {
+		return agents[slot] != null;
+	}
+
+	/**
+	 * @return the number of active agents
+	 */
+	public int activeCount() {
+		return nactive;
+	}
+
+	/**
+	 * @return the slot of the i-th active agent
+	 */
+	public int getActive(int i) {
+		return active[i];
+	}
+
+	public boolean isActive(int slot) {
+		return activePos[slot] >= 0;
+	}
+
+	/**
+	 * Adds a live agent to the active set
+	 *
+	 * @param slot The agent slot
+	 */
+	public void activate(int slot) {
+		if(agents[slot] == null || activePos[slot] >= 0) return;
+		activePos[slot]= nactive;
+		active[nactive++]= slot;
+	}
+
+	/**
+	 * Removes an agent from the active set, the last active slot takes its place
+	 *
+	 * @param slot The agent slot
+	 */
+	public void deactivate(int slot) {
+		int p= activePos[slot];
+		if(p < 0) return;
+		int last= active[--nactive];
+		active[p]= last;
+		activePos[last]= p;
+		activePos[slot]= -1;
+	}
+
+	public static State toState(byte v) {
+		return (v < 0 ? null : STATES[v]);
+	}
+
+	/**
+	 * Reserves a slot for a new agent, its state is cleared
+	 *
+	 * @param b The agent view
+	 * @return The slot
+	 */
+	public int allocate(Bacterium b) {
+		int slot;
+		if(nfree > 0) {
+			slot= free[--nfree];
+		} else {
+			slot= size++;
+			if(slot == agents.length)
+				grow(agents.length * 2);
+		}
+		attach(slot, b);
+		commit(slot);
+		return slot;
+	}
+
+	/**
+	 * Reserves slots to be attached later without touching the store bookkeeping
+	 * (as done by the tile stepping contexts). Released slots are taken first, the
+	 * ones left unused must be handed back with free().
+	 *
+	 * @param slots	Receives the slots
+	 * @param n		The number of slots
+	 */
+	public void reserve(int[] slots, int n) {
+		int k= 0;
+		while(k < n && nfree > 0)
+			slots[k++]= free[--nfree];
+		if(k == n) return;
+		int slot= size;
+		size+= n - k;
+		if(size > agents.length)
+			grow(Math.max(size, agents.length * 2));
+		while(k < n)
+			slots[k++]= slot++;
+	}
+
+	/**
+	 * Binds an agent to a reserved slot and clears its state, the agent is
+	 * neither counted nor active until the slot is committed.
+	 *
+	 * @param slot	The slot
+	 * @param b		The agent view
+	 */
+	void attach(int slot, Bacterium b) {
+		agents[slot]= b;
+		id[slot]= -1;
+		clone[slot]= -1;
+		t0[slot]= 0;
+		G[slot]= 0;
+		Zg[slot]= 0;
+		Gc[slot]= 0;
+		due[slot]= 0;
+		gamma0[slot]= 0;
+		width[slot]= 0;
+		length[slot]= 0;
+		state0[slot]= -1;
+		state[slot]= -1;
+		EEX[slot]= 0;
+		individuals[slot]= 1;
+		encounters[slot]= 0;
+		conjugations[slot]= 0;
+		starved[slot]= false;
+		encounterSets[slot]= null;
+	}
+
+	/**
+	 * Counts and activates an attached agent
+	 */
+	void commit(int slot) {
+		count++;
+		activate(slot);
+	}
+
+	/**
+	 * Returns an unused slot to the free list
+	 */
+	void free(int slot) {
+		if(nfree == free.length)
+			free= Arrays.copyOf(free, free.length * 2);
+		free[nfree++]= slot;
+	}
+
+	/**
+	 * Releases the slot of an agent which has left the simulation
+	 *
+	 * @param slot The agent slot
+	 */
+	public void release(int slot) {
+		if(agents[slot] == null) return;
+		deactivate(slot);
+		agents[slot]= null;
+		encounterSets[slot]= null;
+		free(slot);
+		count--;
+	}
+
+	/**
+	 * Writes the store to a checkpoint
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		out.putInt(size);
+		out.putInt(count);
+		out.putInt(nfree);
+		out.putInts(free, 0, nfree);
+		out.putInt(nactive);
+		out.putInts(active, 0, nactive);
+		for(int s= 0; s< size; s++)
+			out.putByte((byte) (agents[s] != null ? 1 : 0));
+		out.putLongs(id, 0, size);
+		out.putInts(clone, 0, size);
+		out.putDoubles(t0, 0, size);
+		out.putDoubles(G, 0, size);
+		out.putDoubles(Zg, 0, size);
+		out.putDoubles(Gc, 0, size);
+		out.putDoubles(due, 0, size);
+		out.putDoubles(gamma0, 0, size);
+		out.putDoubles(width, 0, size);
+		out.putDoubles(length, 0, size);
+		out.putBytes(state0, 0, size);
+		out.putBytes(state, 0, size);
+		out.putInts(EEX, 0, size);
+		out.putInts(individuals, 0, size);
+		out.putInts(encounters, 0, size);
+		out.putInts(conjugations, 0, size);
+		out.putBooleans(starved, 0, size);
+		for(int s= 0; s< size; s++)
+			EncounterSet.save(out, encounterSets[s]);
+	}
+
+	/**
+	 * Reads the store from a checkpoint, the live slots get new agent views
+	 *
+	 * @param p The parameters of the restored agents
+	 */
+	void restore(Checkpoint.Input in, BacteriumParameters p) {
+		size= in.getInt();
+		count= in.getInt();
+		nfree= in.getInt();
+		free= new int[Math.max(INITIAL_CAPACITY, nfree)];
+		in.getInts(free, 0, nfree);
+		int n= INITIAL_CAPACITY;
+		while(n < size) n*= 2;
+		allocateArrays(n);
+		nactive= in.getInt();
+		in.getInts(active, 0, nactive);
+		for(int i= 0; i< nactive; i++)
+			activePos[active[i]]= i;
+		for(int s= 0; s< size; s++)
+			if(in.getByte() != 0)
+				agents[s]= new Bacterium(p, s);
+		in.getLongs(id, 0, size);
+		in.getInts(clone, 0, size);
+		in.getDoubles(t0, 0, size);
+		in.getDoubles(G, 0, size);
+		in.getDoubles(Zg, 0, size);
+		in.getDoubles(Gc, 0, size);
+		in.getDoubles(due, 0, size);
+		in.getDoubles(gamma0, 0, size);
+		in.getDoubles(width, 0, size);
+		in.getDoubles(length, 0, size);
+		in.getBytes(state0, 0, size);
+		in.getBytes(state, 0, size);
+		in.getInts(EEX, 0, size);
+		in.getInts(individuals, 0, size);
+		in.getInts(encounters, 0, size);
+		in.getInts(conjugations, 0, size);
+		in.getBooleans(starved, 0, size);
+		for(int s= 0; s< size; s++)
+			encounterSets[s]= EncounterSet.restore(in);
+	}
+
+	/**
+	 * Gives the live agents new parameters, their conjugation rate and generation
+	 * time are set again as when they were born. The current cell cycles are kept.
+	 *
+	 * @param p The parameters
+	 */
+	void rebind(BacteriumParameters p) {
+		for(int s= 0; s< size; s++) {
+			if(agents[s] == null) continue;
+			agents[s].setParameters(p);
+			gamma0[s]= p.getGamma();
+			G[s]= p.getGenerationTime(STATES[state[s]]);
+		}
+	}
+
+	private void allocateArrays(int n) {
+		agents= new Bacterium[n];
+		id= new long[n];
+		clone= new int[n];
+		t0= new double[n];
+		G= new double[n];
+		Zg= new double[n];
+		Gc= new double[n];
+		due= new double[n];
+		gamma0= new double[n];
+		width= new double[n];
+		length= new double[n];
+		state0= new byte[n];
+		state= new byte[n];
+		EEX= new int[n];
+		individuals= new int[n];
+		encounters= new int[n];
+		conjugations= new int[n];
+		starved= new boolean[n];
+		encounterSets= new EncounterSet[n];
+		active= new int[n];
+		activePos= new int[n];
+		Arrays.fill(activePos, -1);
+	}
+
+	private void grow(int n) {
+		agents= Arrays.copyOf(agents, n);
+		id= Arrays.copyOf(id, n);
+		clone= Arrays.copyOf(clone, n);
+		t0= Arrays.copyOf(t0, n);
+		G= Arrays.copyOf(G, n);
+		Zg= Arrays.copyOf(Zg, n);
+		Gc= Arrays.copyOf(Gc, n);
+		due= Arrays.copyOf(due, n);
+		gamma0= Arrays.copyOf(gamma0, n);
+		width= Arrays.copyOf(width, n);
+		length= Arrays.copyOf(length, n);
+		state0= Arrays.copyOf(state0, n);
+		state= Arrays.copyOf(state, n);
+		EEX= Arrays.copyOf(EEX, n);
+		individuals= Arrays.copyOf(individuals, n);
+		encounters= Arrays.copyOf(encounters, n);
+		conjugations= Arrays.copyOf(conjugations, n);
+		starved= Arrays.copyOf(starved, n);
+		encounterSets= Arrays.copyOf(encounterSets, n);
+		active= Arrays.copyOf(active, n);
+		int l= activePos.length;
+		activePos= Arrays.copyOf(activePos, n);
+		Arrays.fill(activePos, l, n, -1);
+	}
+}
@@ -0,0 +1,130 @@
+package org.holistic.bactocom;
+
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Block sampled random streams for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The variates are generated in blocks into primitive buffers and served from
+ * them: Ziggurat normals for the generation time and the conjugation rate, the
+ * tabulated Poisson for the conjugation count and plain uniforms. Every process
+ * has its own buffer, all of them fed by a single engine.
+ *
+ * The tile contexts reset their streams for every tile run, which only steps a
+ * few dozen cells. After a reset the blocks start at MIN_BLOCK variates and
+ * double on every refill up to BLOCK, so a short run does not throw away most
+ * of full blocks while a long one soon draws full blocks again.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class BufferedStreams extends RandomStreams {
+	private final static long serialVersionUID= 1L;
+	private final static int BLOCK= 512;
+	private final static int MIN_BLOCK= 16;
+
+	private final static int DIVISION= 0;
+	private final static int GAMMA= 1;
+	private final static int CONJUGATION= 2;
+	private final static int UNIFORM= 3;
+	private final static int INDEX= 4;
+	private final static int SHUFFLE= 5;
+	private final static int PROCESSES= 6;
+
+	private final RandomEngine engine;
+	private final PoissonTable poisson;
+
+	private final double[][] buffer= new double[PROCESSES][BLOCK];
+	private final int[] conjugation= new int[BLOCK];
+	private final int[] next= new int[PROCESSES];		// The next buffered variate
+	private final int[] end= new int[PROCESSES];		// The end of the buffered variates
+	private final int[] size= new int[PROCESSES];		// The next block size
+
+	/**
+	 * @param engine	The uniform source
+	 * @param rate		The intrinsic conjugation rate
+	 */
+	public BufferedStreams(RandomEngine engine, double rate) {
+		this.engine= engine;
+		this.poisson= new PoissonTable(rate);
+		for(int p= 0; p< PROCESSES; p++)
+			size[p]= BLOCK;
+	}
+
+	/**
+	 * Drops the buffered variates, the next draws come from the engine in
+	 * blocks of MIN_BLOCK variates
+	 */
+	@Override
+	public void reset() {
+		for(int p= 0; p< PROCESSES; p++) {
+			next[p]= end[p]= 0;
+			size[p]= MIN_BLOCK;
+		}
+	}
+
+	/**
+	 * @return the size of the next block of a process, the following one doubles
+	 */
+	private int refill(int process) {
+		int n= size[process];
+		size[process]= Math.min(BLOCK, n * 2);
+		next[process]= 0;
+		end[process]= n;
+		return n;
+	}
+
+	@Override
+	public double nextDivision() {
+		return nextNormal(DIVISION);
+	}
+
+	@Override
+	public double nextGamma() {
+		return nextNormal(GAMMA);
+	}
+
+	@Override
+	public int nextConjugation() {
+		if(next[CONJUGATION] == end[CONJUGATION]) {
+			int n= refill(CONJUGATION);
+			boolean z= poisson.isApproximate();
+			for(int i= 0; i< n; i++)
+				conjugation[i]= poisson.sample(engine.raw(), z ? Ziggurat.nextNormal(engine) : 0);
+		}
+		return conjugation[next[CONJUGATION]++];
+	}
+
+	@Override
+	public double nextUniform() {
+		return nextRaw(UNIFORM);
+	}
+
+	@Override
+	public int nextIndex(int n) {
+		return (int) (nextRaw(INDEX) * n);
+	}
+
+	@Override
+	public int nextShuffle(int n) {
+		return (int) (nextRaw(SHUFFLE) * n);
+	}
+
+	private double nextNormal(int process) {
+		if(next[process] == end[process])
+			Ziggurat.fill(engine, buffer[process], refill(process));
+		return buffer[process][next[process]++];
+	}
+
+	private double nextRaw(int process) {
+		if(next[process] == end[process]) {
+			double[] v= buffer[process];
+			int n= refill(process);
+			for(int i= 0; i< n; i++)
+				v[i]= engine.raw();
+		}
+		return buffer[process][next[process]++];
+	}
+}
@@ -0,0 +1,454 @@
+package org.holistic.bactocom;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Parameter calibration for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Searches the model parameters (by default TI, densityD, GR, GD and GT) that
+ * minimize the fitting error of HeadlessEngine.fit() against the equation curve,
+ * with a Nelder-Mead simplex over the box given by the bounds of every dimension.
+ * A candidate is scored by the mean error of a number of replicate runs, all the
+ * candidates using the same seeds so their differences are not noise.
+ *
+ * The replicates, the starting simplex, the shrinks and the reflection, expansion
+ * and both contractions of an iteration are run concurrently on a RunExecutor;
+ * the contractions are evaluated before knowing whether they are needed, so an
+ * iteration costs one round of runs instead of up to three.
+ *
+ * The replicates of those four candidates share a DivergenceMonitor bound to the
+ * error of the worst vertex of the simplex: a candidate that cannot beat it only
+ * leads to the next step, so its runs are stopped as soon as that is certain.
+ * The starting and the shrunk vertices stay on the simplex and always complete.
+ *
+ * When the calibrated parameters do not act before a given tick (as TI before the
+ * first donor to recipient contact) the replicates can branch from a Fork taken
+ * at that tick, one per seed, instead of simulating the same prefix every time.
+ * The donor density sets the initial population and the generation times the
+ * cycles of the initial cells, so they cannot be calibrated from a fork (the
+ * generation times can from a fork at tick 0, before any cell divides).
+ *
+ * Usage: Calibration parameters.xml threads replicates evaluations [fork=tick] [name=lower:upper ...] [name=value ...]
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class Calibration {
+	private final static double ALPHA= 1;		// Reflection
+	private final static double GAMMA= 2;		// Expansion
+	private final static double RHO= 0.5;		// Contraction
+	private final static double SIGMA= 0.5;		// Shrink
+	private final static double STEP= 0.25;		// Initial simplex size, fraction of every range
+	private final static String FORK= "fork";
+
+	// The steps of an iteration, the first four index the candidates of evaluate()
+	final static int REFLECT= 0;
+	final static int EXPAND= 1;
+	final static int CONTRACT_OUTSIDE= 2;
+	final static int CONTRACT_INSIDE= 3;
+	final static int SHRINK= 4;
+
+	/**
+	 * Follows the progress of a search
+	 */
+	public interface Listener {
+		/**
+		 * Called at the start of every iteration
+		 *
+		 * @param c			The search
+		 * @param iteration	The iteration, from 1
+		 * @param best		The model parameters of the best vertex of the simplex
+		 * @param error		Its error
+		 */
+		void iteration(Calibration c, int iteration, Map<String, Object> best, double error);
+	}
+
+	/**
+	 * A calibrated parameter and its bounds
+	 */
+	public static class Dimension {
+		private final String name;
+		private final double lower;
+		private final double upper;
+		private final boolean integer;		// Rounded before running the model
+
+		public Dimension(String name, double lower, double upper, boolean integer) {
+			if(!(upper > lower))
+				throw new IllegalArgumentException("Empty range for " + name);
+			this.name= name;
+			this.lower= lower;
+			this.upper= upper;
+			this.integer= integer;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		Object toValue(double x) {
+			double v= lower + Math.max(0, Math.min(1, x)) * (upper - lower);
+			return (integer ? (Object) (int) Math.round(v) : (Object) v);
+		}
+
+		double toUnit(Object v) {
+			double x= (v instanceof Number ? (((Number) v).doubleValue() - lower) / (upper - lower) : 0.5);
+			return Math.max(0, Math.min(1, x));
+		}
+	}
+
+	private final RunExecutor executor;
+	private final Map<String, Object> values;
+	private final Dimension[] dimensions;
+	private final int replicates;
+	private final int seed;
+	private Fork[] forks= null;						// The shared prefix of every replicate, null for none
+	private Listener listener= null;
+
+	private double[] best= null;					// On the unit box
+	private double bestError= Double.MAX_VALUE;
+	private int evaluations= 0;
+	private int stopped= 0;							// Candidates stopped early
+
+	/**
+	 * @param executor		Runs the replicates
+	 * @param values		The model parameters, the starting point of the search
+	 * @param dimensions	The calibrated parameters
+	 * @param replicates	The runs per candidate
+	 */
+	public Calibration(RunExecutor executor, Map<String, Object> values, List<Dimension> dimensions, int replicates) {
+		if(dimensions.isEmpty())
+			throw new IllegalArgumentException("Nothing to calibrate");
+		this.executor= executor;
+		this.values= new HashMap<String, Object>(values);
+		this.values.put(MyParameters.PN_AUTOFIT, false);		// The experimental veto would fit the curve by itself
+		this.dimensions= dimensions.toArray(new Dimension[dimensions.size()]);
+		this.replicates= Math.max(1, replicates);
+		Object s= values.get(MyParameters.PN_RANDOM_SEED);
+		this.seed= (s != null ? (Integer) s : (int) System.currentTimeMillis());
+	}
+
+	/**
+	 * The default search space
+	 */
+	public static List<Dimension> getDefaultDimensions() {
+		List<Dimension> l= new ArrayList<Dimension>();
+		l.add(new Dimension(MyParameters.PN_INTRINSIC, 0.01, 2, false));
+		l.add(new Dimension(MyParameters.PN_DENSITY_D, 1, 99, false));
+		l.add(new Dimension(MyParameters.PN_GR, 20, 90, true));
+		l.add(new Dimension(MyParameters.PN_GD, 20, 90, true));
+		l.add(new Dimension(MyParameters.PN_GT, 20, 90, true));
+		return l;
+	}
+
+	/**
+	 * Whether a parameter acts on the run before a tick, so a fork taken at that
+	 * tick would keep its value from the starting point
+	 *
+	 * @param name	The parameter name
+	 * @param tick	The branching tick
+	 */
+	public static boolean actsBefore(String name, double tick) {
+		if(MyParameters.PN_DENSITY_D.equals(name))
+			return true;
+		if(MyParameters.PN_GR.equals(name) || MyParameters.PN_GD.equals(name) || MyParameters.PN_GT.equals(name))
+			return tick > 0;
+		return false;
+	}
+
+	/**
+	 * Makes the replicates branch from the state of their seed at a tick, the
+	 * calibrated parameters must not act before it
+	 *
+	 * @param tick The branching tick
+	 * @throws IllegalArgumentException if a calibrated parameter acts before the tick
+	 */
+	public void setFork(double tick) throws InterruptedException {
+		for(Dimension d : dimensions) {
+			if(actsBefore(d.getName(), tick))
+				throw new IllegalArgumentException("Cannot calibrate " + d.getName() + " from a fork at tick " + tick);
+		}
+		List<Future<Fork>> l= new ArrayList<Future<Fork>>(replicates);
+		for(int k= 0; k< replicates; k++) {
+			Map<String, Object> v= new HashMap<String, Object>(values);
+			v.put(MyParameters.PN_RANDOM_SEED, seed + k);
+			l.add(executor.submitFork(v, tick));
+		}
+		Fork[] f= new Fork[replicates];
+		for(int k= 0; k< replicates; k++) {
+			try {
+				f[k]= l.get(k).get();
+			} catch(ExecutionException e) {
+				throw new IllegalStateException("Cannot run the shared prefix", e.getCause());
+			}
+		}
+		forks= f;
+	}
+
+	/**
+	 * Runs the search
+	 *
+	 * @param maxEvaluations	The candidates to evaluate at most
+	 * @param tolerance			Stops once the errors on the simplex differ less than this
+	 * @return the best parameters found
+	 */
+	public Map<String, Object> minimize(int maxEvaluations, double tolerance) throws InterruptedException {
+		int n= dimensions.length;
+		double[][] simplex= new double[n + 1][];
+		simplex[0]= new double[n];
+		for(int i= 0; i< n; i++)
+			simplex[0][i]= dimensions[i].toUnit(values.get(dimensions[i].getName()));
+		for(int i= 0; i< n; i++) {
+			simplex[i + 1]= simplex[0].clone();
+			simplex[i + 1][i]+= (simplex[0][i] + STEP <= 1 ? STEP : -STEP);
+		}
+		double[] f= evaluate(simplex, Double.MAX_VALUE);
+
+		int iteration= 0;
+		while(evaluations < maxEvaluations) {
+			sort(simplex, f);
+			iteration++;
+			if(listener != null)
+				listener.iteration(this, iteration, toValues(simplex[0]), f[0]);
+			if(f[n] - f[0] < tolerance)
+				break;
+
+			double[] c= new double[n];
+			for(int i= 0; i< n; i++)
+				for(int j= 0; j< n; j++)
+					c[j]+= simplex[i][j] / n;
+
+			double[] r= move(c, simplex[n], ALPHA);
+			double[] e= move(c, simplex[n], GAMMA);
+			double[] oc= move(c, simplex[n], ALPHA * RHO);
+			double[] ic= move(c, simplex[n], -RHO);
+			double[][] candidates= new double[][] { r, e, oc, ic };
+			double[] g= evaluate(candidates, f[n]);
+
+			int step= choose(f, g[REFLECT], g[EXPAND], g[CONTRACT_OUTSIDE], g[CONTRACT_INSIDE]);
+			if(step != SHRINK) {
+				simplex[n]= candidates[step];
+				f[n]= g[step];
+			} else {
+				double[][] shrunk= new double[n][];
+				for(int i= 1; i<= n; i++)
+					shrunk[i - 1]= move(simplex[0], simplex[i], -SIGMA);
+				double[] h= evaluate(shrunk, Double.MAX_VALUE);
+				for(int i= 1; i<= n; i++) {
+					simplex[i]= shrunk[i - 1];
+					f[i]= h[i - 1];
+				}
+			}
+		}
+		return toValues(best);
+	}
+
+	/**
+	 * Chooses the step of an iteration
+	 *
+	 * @param f		The errors of the simplex, sorted
+	 * @param fr	The error of the reflection
+	 * @param fe	The error of the expansion
+	 * @param foc	The error of the outside contraction
+	 * @param fic	The error of the inside contraction
+	 * @return the candidate replacing the worst vertex, SHRINK if none
+	 */
+	static int choose(double[] f, double fr, double fe, double foc, double fic) {
+		int n= f.length - 1;
+		if(fr < f[0])
+			return (fe < fr ? EXPAND : REFLECT);
+		if(fr < f[n - 1])
+			return REFLECT;
+		if(fr < f[n] && foc <= fr)
+			return CONTRACT_OUTSIDE;
+		if(fr >= f[n] && fic < f[n])
+			return CONTRACT_INSIDE;
+		return SHRINK;
+	}
+
+	/**
+	 * @return the point c + a (c - x), projected on the unit box
+	 */
+	private static double[] move(double[] c, double[] x, double a) {
+		double[] p= new double[c.length];
+		for(int i= 0; i< c.length; i++)
+			p[i]= Math.max(0, Math.min(1, c[i] + a * (c[i] - x[i])));
+		return p;
+	}
+
+	/**
+	 * Sorts the simplex by error, lowest first
+	 */
+	private static void sort(double[][] simplex, double[] f) {
+		for(int i= 1; i< f.length; i++) {
+			double fi= f[i];
+			double[] xi= simplex[i];
+			int j= i - 1;
+			for(; j>= 0 && f[j] > fi; j--) {
+				f[j + 1]= f[j];
+				simplex[j + 1]= simplex[j];
+			}
+			f[j + 1]= fi;
+			simplex[j + 1]= xi;
+		}
+	}
+
+	/**
+	 * Scores the candidates, all their replicates run concurrently
+	 *
+	 * @param bound	The error a candidate must beat to be completed
+	 * @return the mean fitting error of every candidate, a lower bound of it for
+	 * the ones stopped early
+	 */
+	double[] evaluate(double[][] points, double bound) throws InterruptedException {
+		List<List<Future<Double>>> runs= new ArrayList<List<Future<Double>>>(points.length);
+		DivergenceMonitor[] monitors= new DivergenceMonitor[points.length];
+		for(int i= 0; i< points.length; i++) {
+			monitors[i]= new DivergenceMonitor(0, bound, replicates);
+			List<Future<Double>> l= new ArrayList<Future<Double>>(replicates);
+			for(int k= 0; k< replicates; k++) {
+				Map<String, Object> v= toValues(points[i]);
+				v.put(MyParameters.PN_RANDOM_SEED, seed + k);
+				l.add(executor.submitFit(v, monitors[i], forks != null ? forks[k] : null));
+			}
+			runs.add(l);
+		}
+
+		double[] f= new double[points.length];
+		for(int i= 0; i< points.length; i++) {
+			for(Future<Double> r : runs.get(i)) {
+				try {
+					r.get();
+				} catch(ExecutionException e) {
+					throw new IllegalStateException("Run failed for " + toValues(points[i]), e.getCause());
+				}
+			}
+			f[i]= monitors[i].getError();
+			record(points[i], f[i], monitors[i].isStopped());
+		}
+		return f;
+	}
+
+	/**
+	 * Accounts a scored candidate
+	 *
+	 * @param x			The candidate, on the unit box
+	 * @param error		Its error
+	 * @param early		Whether its runs were stopped early
+	 */
+	void record(double[] x, double error, boolean early) {
+		evaluations++;
+		if(early)
+			stopped++;
+		if(error < bestError) {
+			bestError= error;
+			best= x.clone();
+		}
+	}
+
+	/**
+	 * @return the model parameters at a point of the unit box
+	 */
+	private Map<String, Object> toValues(double[] x) {
+		Map<String, Object> v= new HashMap<String, Object>(values);
+		for(int i= 0; i< dimensions.length; i++)
+			v.put(dimensions[i].getName(), dimensions[i].toValue(x[i]));
+		return v;
+	}
+
+	/**
+	 * @param l Follows the next searches, null for none
+	 */
+	public void setListener(Listener l) {
+		listener= l;
+	}
+
+	public double getBestError() {
+		return bestError;
+	}
+
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * @return the candidates whose runs were stopped by the divergence monitor
+	 */
+	public int getStopped() {
+		return stopped;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 4) {
+			System.err.println("Usage: Calibration parameters.xml threads replicates evaluations [fork=tick] [name=lower:upper ...] [name=value ...]");
+			System.exit(1);
+		}
+		long t0= System.currentTimeMillis();
+		Map<String, String> types= new HashMap<String, String>();
+		Map<String, Object> values= HeadlessEngine.loadParameters(new File(args[0]), types);
+		int threads= Integer.parseInt(args[1]);
+		int replicates= Integer.parseInt(args[2]);
+		int maxEvaluations= Integer.parseInt(args[3]);
+
+		final List<Dimension> dimensions= new ArrayList<Dimension>();
+		double fork= 0;
+		for(int i= 4; i< args.length; i++) {
+			int k= args[i].indexOf('=');
+			if(k < 0) throw new IllegalArgumentException("Not a name=value pair: " + args[i]);
+			String name= args[i].substring(0, k);
+			String value= args[i].substring(k + 1);
+			if(FORK.equals(name)) {
+				fork= Double.parseDouble(value);
+				continue;
+			}
+			if(!types.containsKey(name))
+				throw new IllegalArgumentException("Unknown parameter: " + name);
+			String[] range= value.split(":");
+			if(range.length == 2)
+				dimensions.add(new Dimension(name, Double.parseDouble(range[0]), Double.parseDouble(range[1]), "int".equals(types.get(name))));
+			else
+				values.put(name, HeadlessEngine.convert(types.get(name), value));
+		}
+		if(dimensions.isEmpty()) {
+			for(Dimension d : getDefaultDimensions()) {
+				if(fork == 0 || !actsBefore(d.getName(), fork))
+					dimensions.add(d);
+			}
+		}
+
+		RunExecutor executor= new RunExecutor(threads);
+		try {
+			Calibration c= new Calibration(executor, values, dimensions, replicates);
+			if(fork > 0)
+				c.setFork(fork);
+			c.setListener(new Listener() {
+				@Override
+				public void iteration(Calibration search, int iteration, Map<String, Object> vertex, double error) {
+					StringBuilder sb= new StringBuilder();
+					sb.append("Iteration ").append(iteration).append(" (").append(search.getEvaluations()).append(" candidates, ")
+						.append(search.getStopped()).append(" stopped early): error= ").append(error);
+					for(Dimension d : dimensions)
+						sb.append(' ').append(d.getName()).append('=').append(vertex.get(d.getName()));
+					System.out.println(sb);
+				}
+			});
+			Map<String, Object> best= c.minimize(maxEvaluations, 1e-6);
+			StringBuilder sb= new StringBuilder("Best (error= " + c.getBestError() + "):");
+			for(Dimension d : dimensions)
+				sb.append(' ').append(d.getName()).append('=').append(best.get(d.getName()));
+			System.out.println(sb);
+			System.out.println(c.getEvaluations() + " candidates (" + c.getStopped() + " stopped early) in "
+					+ (System.currentTimeMillis() - t0) + " ms");
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,379 @@
+package org.holistic.bactocom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Binary checkpoints for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * A checkpoint holds the whole state of a run at the end of a tick: the clock,
+ * seed and conjugation rate, the random streams, the identifiers, the agent
+ * store columns (with the encounter sets), the occupancy lattice, the nutrient
+ * field, the division queue, the population counters and the metrics snapshot.
+ * Every stateful class writes and reads its own section, in that order, as
+ * little endian primitives through a FileChannel. The random streams are the
+ * only section written with Java serialization, the Colt engines and
+ * distributions being serializable.
+ *
+ * A checkpoint is restored into a fresh headless run, which then steps on from
+ * the next tick. The cell parameters come from the parameters of the new run,
+ * the per cell state (as the sampled gamma0 and generation times) from the file.
+ * A checkpoint can also be captured in memory and branched: every branch takes
+ * the state as it is but its own parameters and random streams (see Fork).
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class Checkpoint {
+	private final static int MAGIC= 0x42434B50;			// "BCKP"
+	private final static int VERSION= 1;
+	private final static int BUFFER= 1 << 20;
+
+	/**
+	 * Writes the state of the current run, it must be called between ticks.
+	 * The file is written aside and then renamed, a crash never leaves a
+	 * partial checkpoint behind.
+	 *
+	 * @param f The file
+	 */
+	public static void save(File f) throws IOException {
+		Path target= f.toPath();
+		Path tmp= target.resolveSibling(target.getFileName() + ".tmp");
+		Output out= new Output(FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+		try {
+			write(out);
+			out.close();
+		} catch(IOException e) {
+			out.close();
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the state of the current run to memory, it must be called between ticks
+	 *
+	 * @return the checkpoint, read only
+	 */
+	public static ByteBuffer capture() throws IOException {
+		ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+		Output out= new Output(Channels.newChannel(bytes));
+		write(out);
+		out.close();
+		return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+	}
+
+	private static void write(Output out) throws IOException {
+		SimulationContext simulation= SimulationContext.getInstance();
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putDouble(simulation.getTick());
+		out.putInt(lattice.getWidth());
+		out.putInt(lattice.getHeight());
+		out.putInt(simulation.getSeed());
+		out.putDouble(simulation.getConjugationRate());
+		out.putObject(simulation.getStreams());
+
+		Genotype.save(out);
+		BacteriumStore.getInstance().save(out);
+		lattice.save(out);
+		NutrientField.getInstance().save(out);
+		DivisionQueue.getInstance().save(out);
+		MyPopulationBookkeeper.getInstance().save(out);
+		ModelRatesHelper.getInstance().save(out);
+		out.putInt(MAGIC);
+	}
+
+	/**
+	 * Replaces the state of the current run with a checkpoint. The run gets a
+	 * new headless SimulationContext with the clock, seed and random streams of
+	 * the checkpoint; the schedule must be reset by the caller.
+	 *
+	 * @param f The file
+	 * @return the tick of the checkpoint
+	 */
+	public static double restore(File f) throws IOException {
+		return read(new Input(f), false);
+	}
+
+	/**
+	 * Replaces the state of the current run with a checkpoint captured in memory
+	 *
+	 * @param image The checkpoint, left untouched
+	 * @return the tick of the checkpoint
+	 */
+	public static double restore(ByteBuffer image) throws IOException {
+		return read(new Input(image.duplicate()), false);
+	}
+
+	/**
+	 * Replaces the state of the current run with a branch of a checkpoint
+	 * captured in memory. The random streams are made again from the seed and
+	 * the conjugation rate of the run, and the live cells take their gamma0 and
+	 * generation time from its parameters; the rest of the state is as captured.
+	 *
+	 * @param image The checkpoint, left untouched
+	 * @return the tick of the checkpoint
+	 */
+	public static double branch(ByteBuffer image) throws IOException {
+		return read(new Input(image.duplicate()), true);
+	}
+
+	/**
+	 * @param branch true to take the parameters and random streams of the current run
+	 */
+	private static double read(Input in, boolean branch) throws IOException {
+		if(in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException("Not a checkpoint");
+		double tick= in.getDouble();
+		int width= in.getInt();
+		int height= in.getInt();
+		int seed= in.getInt();
+		double rate= in.getDouble();
+		RandomStreams streams= (RandomStreams) in.getObject();
+		if(branch) {
+			seed= MyParameters.getRandomSeed();
+			rate= MyParameters.getIntrinsicConjugationRate();
+			streams= StepContext.newStreams(seed, rate, new MersenneTwister(seed));
+		}
+
+		BacteriumStore.getInstance().reset();
+		DivisionQueue.getInstance().reset();
+		ModelRatesHelper.getInstance().reset();
+		OccupancyLattice.getInstance().reset(width, height);
+		NutrientField.getInstance().reset(width, height);
+
+		SimulationContext simulation= new SimulationContext(null, null, null, streams, seed, rate);
+		simulation.setTick(tick);
+		SimulationContext.setInstance(simulation);
+		StepContext.init(simulation);
+		ModelRatesHelper.getInstance().setFitnessFunction(MyParameters.getEquation());
+		BacteriumParameters p= BacteriumParamtersFactory.newParameters(MyParameters.getIntrinsicConjugationRate(),
+				MyParameters.getGr(), MyParameters.getGd(), MyParameters.getGt(),
+				MyParameters.isOnlyOriT(), MyParameters.getEquation());
+
+		Genotype.restore(in);
+		BacteriumStore.getInstance().restore(in, p);
+		if(branch)
+			BacteriumStore.getInstance().rebind(p);
+		OccupancyLattice.getInstance().restore(in);
+		NutrientField.getInstance().restore(in);
+		DivisionQueue.getInstance().restore(in);
+		MyPopulationBookkeeper.getInstance().restore(in);
+		ModelRatesHelper.getInstance().restore(in);
+		if(in.getInt() != MAGIC)
+			throw new IOException("Corrupt checkpoint");
+		return tick;
+	}
+
+	/**
+	 * Buffered little endian writer over a channel
+	 */
+	static class Output {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer= ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		Output(WritableByteChannel channel) {
+			this.channel= channel;
+		}
+
+		private void ensure(int n) throws IOException {
+			if(buffer.remaining() < n)
+				flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		void close() throws IOException {
+			if(!channel.isOpen()) return;
+			try {
+				flush();
+				if(channel instanceof FileChannel)
+					((FileChannel) channel).force(false);
+			} finally {
+				channel.close();
+			}
+		}
+
+		void putByte(byte v) throws IOException {
+			ensure(1);
+			buffer.put(v);
+		}
+
+		void putInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+		}
+
+		void putLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+		}
+
+		void putDouble(double v) throws IOException {
+			ensure(8);
+			buffer.putDouble(v);
+		}
+
+		void putBytes(byte[] v, int off, int n) throws IOException {
+			while(n > 0) {
+				ensure(1);
+				int k= Math.min(n, buffer.remaining());
+				buffer.put(v, off, k);
+				off+= k;
+				n-= k;
+			}
+		}
+
+		void putBooleans(boolean[] v, int off, int n) throws IOException {
+			for(int i= off; i< off + n; i++)
+				putByte((byte) (v[i] ? 1 : 0));
+		}
+
+		void putInts(int[] v, int off, int n) throws IOException {
+			while(n > 0) {
+				ensure(4);
+				int k= Math.min(n, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(v, off, k);
+				buffer.position(buffer.position() + k * 4);
+				off+= k;
+				n-= k;
+			}
+		}
+
+		void putLongs(long[] v, int off, int n) throws IOException {
+			while(n > 0) {
+				ensure(8);
+				int k= Math.min(n, buffer.remaining() / 8);
+				buffer.asLongBuffer().put(v, off, k);
+				buffer.position(buffer.position() + k * 8);
+				off+= k;
+				n-= k;
+			}
+		}
+
+		void putDoubles(double[] v, int off, int n) throws IOException {
+			while(n > 0) {
+				ensure(8);
+				int k= Math.min(n, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().put(v, off, k);
+				buffer.position(buffer.position() + k * 8);
+				off+= k;
+				n-= k;
+			}
+		}
+
+		/**
+		 * Writes a serializable object, length prefixed
+		 */
+		void putObject(Object o) throws IOException {
+			ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+			ObjectOutputStream s= new ObjectOutputStream(bytes);
+			s.writeObject(o);
+			s.close();
+			byte[] v= bytes.toByteArray();
+			putInt(v.length);
+			putBytes(v, 0, v.length);
+		}
+	}
+
+	/**
+	 * Little endian reader over a mapped file or a buffer
+	 */
+	static class Input {
+		private final ByteBuffer buffer;
+
+		Input(File f) throws IOException {
+			FileChannel channel= FileChannel.open(f.toPath(), StandardOpenOption.READ);
+			try {
+				buffer= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			} finally {
+				channel.close();
+			}
+		}
+
+		/**
+		 * Reads from memory, the buffer position is moved along
+		 */
+		Input(ByteBuffer buffer) {
+			this.buffer= buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		byte getByte() {
+			return buffer.get();
+		}
+
+		int getInt() {
+			return buffer.getInt();
+		}
+
+		long getLong() {
+			return buffer.getLong();
+		}
+
+		double getDouble() {
+			return buffer.getDouble();
+		}
+
+		void getBytes(byte[] v, int off, int n) {
+			buffer.get(v, off, n);
+		}
+
+		void getBooleans(boolean[] v, int off, int n) {
+			for(int i= off; i< off + n; i++)
+				v[i]= (buffer.get() != 0);
+		}
+
+		void getInts(int[] v, int off, int n) {
+			buffer.asIntBuffer().get(v, off, n);
+			buffer.position(buffer.position() + n * 4);
+		}
+
+		void getLongs(long[] v, int off, int n) {
+			buffer.asLongBuffer().get(v, off, n);
+			buffer.position(buffer.position() + n * 8);
+		}
+
+		void getDoubles(double[] v, int off, int n) {
+			buffer.asDoubleBuffer().get(v, off, n);
+			buffer.position(buffer.position() + n * 8);
+		}
+
+		Object getObject() throws IOException {
+			byte[] v= new byte[getInt()];
+			getBytes(v, 0, v.length);
+			ObjectInputStream s= new ObjectInputStream(new ByteArrayInputStream(v));
+			try {
+				return s.readObject();
+			} catch(ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				s.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package org.holistic.bactocom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import repast.simphony.context.Context;
+import repast.simphony.data2.AggregateDataSource;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+
+/**
+ * Binary columnar output for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Records the numeric output columns as doubles into primitive column
+ * arrays. Every block of rows is handed to a background thread that writes it
+ * (deflated if asked) through a FileChannel, so the simulation thread neither
+ * formats nor writes anything. The values that are constant over a run (the
+ * run number, the seed, the plasmid name, the experimental equation and the
+ * other model parameters) are written once, on the run header. The outcome of
+ * the run (see DivergenceMonitor) goes on the trailer, empty if the run did not
+ * end normally.
+ *
+ * File layout, little endian: magic, version, compressed flag, the header
+ * entries (count, then key and value strings), the column names, then the
+ * blocks (rows, raw size, stored size and the column major doubles) ended by an
+ * empty block, then the trailer entries. Strings are an int length followed by
+ * UTF-8 bytes. Version 1 files have no trailer.
+ *
+ * Usage: ColumnarSink file.bcol, prints the file as comma separated text
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class ColumnarSink {
+	private final static int MAGIC= 0x42434F4C;			// "BCOL"
+	private final static int VERSION= 2;
+	private final static int BLOCK= 256;				// Rows per block
+	private final static int BUFFERS= 3;				// Blocks being filled or written
+	private final static Charset UTF8= Charset.forName("UTF-8");
+	private final static List<Object> SOURCE= Collections.singletonList(null);
+
+	// The numeric output sources, in file order. The constant ones go on the header.
+	private final static AggregateDataSource[] COLUMNS= HeadlessEngine.getNumericColumns();
+
+	private final FileChannel channel;
+	private final boolean compressed;
+	private final ExecutorService writer;
+	private final BlockingQueue<double[][]> free= new ArrayBlockingQueue<double[][]>(BUFFERS);
+	private final Deflater deflater;
+	private ByteBuffer raw= null;				// Writer thread buffers
+	private byte[] stored= null;
+	private volatile IOException failure= null;
+	private Map<String, String> trailer= Collections.emptyMap();
+
+	private double[][] block;					// The block being filled, by column
+	private int rows= 0;
+	private final double[] row= new double[COLUMNS.length];
+	private List<Object> source= SOURCE;		// What the data sources are evaluated on
+
+	/**
+	 * @param f				The file
+	 * @param compressed	Whether the blocks are deflated
+	 * @param header		The run constants
+	 */
+	public ColumnarSink(File f, boolean compressed, Map<String, String> header) throws IOException {
+		this.channel= FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.compressed= compressed;
+		this.deflater= (compressed ? new Deflater(Deflater.BEST_SPEED) : null);
+		this.writer= Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t= new Thread(r, "ColumnarSink");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for(int i= 0; i< BUFFERS; i++)
+			free.add(new double[COLUMNS.length][BLOCK]);
+		block= take();
+
+		ByteBuffer b= ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		b.put((byte) (compressed ? 1 : 0));
+		putEntries(b, header);
+		b.putInt(COLUMNS.length);
+		for(AggregateDataSource c : COLUMNS)
+			putString(b, c.getId());
+		b.flip();
+		write(b);
+	}
+
+	/**
+	 * The run constants of the current run
+	 *
+	 * @param run The run number
+	 */
+	public static Map<String, String> getRunHeader(int run) {
+		Map<String, String> h= new LinkedHashMap<String, String>();
+		h.put("run", String.valueOf(run));
+		h.put("random_seed", String.valueOf(MyParameters.getRandomSeed()));
+		h.put("Plasmid", MyParameters.getPlasmidName());
+		h.put(MyParameters.PN_EQUATION, MyParameters.getEquation());
+		h.put(MyParameters.PN_INTRINSIC, String.valueOf(MyParameters.getIntrinsicConjugationRate()));
+		h.put(MyParameters.PN_GR, String.valueOf(MyParameters.getGr()));
+		h.put(MyParameters.PN_GD, String.valueOf(MyParameters.getGd()));
+		h.put(MyParameters.PN_GT, String.valueOf(MyParameters.getGt()));
+		h.put(MyParameters.PN_ORIT, String.valueOf(MyParameters.isOnlyOriT()));
+		h.put(MyParameters.PN_DENSITY_D, String.valueOf(MyParameters.getInitialDonorDensity() * 100));
+		h.put(MyParameters.PN_DENSITY_T0, MyParameters.getM0());
+		h.put("width", String.valueOf(MyParameters.getWidth()));
+		h.put("height", String.valueOf(MyParameters.getHeight()));
+		return h;
+	}
+
+	/**
+	 * Records the DS::All schedule of a Repast run (tick 5 and then every 10
+	 * ticks, after every other action) and closes the file at the end of the run
+	 *
+	 * @param context The context the data sources are evaluated on
+	 */
+	public void schedule(Context<Object> context) {
+		source= Collections.<Object>singletonList(context);
+		ISchedule schedule= RunEnvironment.getInstance().getCurrentSchedule();
+		schedule.schedule(ScheduleParameters.createRepeating(HeadlessEngine.RECORD_START, HeadlessEngine.RECORD_INTERVAL,
+				ScheduleParameters.LAST_PRIORITY), this, "record");
+		schedule.schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "end");
+	}
+
+	/**
+	 * Appends a row with the current values of the columns
+	 */
+	public void record() throws IOException {
+		for(int c= 0; c< COLUMNS.length; c++) {
+			Object v= COLUMNS[c].get(source, 1);
+			row[c]= (v instanceof Number ? ((Number) v).doubleValue() : Double.NaN);
+		}
+		append(row);
+	}
+
+	/**
+	 * Appends a row
+	 *
+	 * @param v The values, in column order
+	 */
+	void append(double[] v) throws IOException {
+		if(failure != null) throw failure;
+		for(int c= 0; c< COLUMNS.length; c++)
+			block[c][rows]= v[c];
+		if(++rows == BLOCK) {
+			submit(block, rows);
+			block= take();
+			rows= 0;
+		}
+	}
+
+	/**
+	 * Closes the file with the outcome of the current run on the trailer
+	 */
+	public void end() throws IOException {
+		if(!channel.isOpen()) return;
+		trailer= ModelRatesHelper.getInstance().getMonitor().getStatusEntries();
+		close();
+	}
+
+	/**
+	 * Writes the pending rows, the end mark and the trailer, and waits for the writer
+	 */
+	public void close() throws IOException {
+		if(!channel.isOpen()) return;
+		try {
+			if(rows > 0)
+				submit(block, rows);
+			rows= 0;
+			submit(null, 0);
+			writer.shutdown();
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the output", e);
+		} finally {
+			channel.close();
+			if(deflater != null)
+				deflater.end();
+		}
+		if(failure != null) throw failure;
+	}
+
+	private double[][] take() throws IOException {
+		try {
+			return free.take();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the output", e);
+		}
+	}
+
+	/**
+	 * Hands a block to the writer thread, null for the end mark and the trailer
+	 */
+	private void submit(final double[][] b, final int n) {
+		final Map<String, String> t= trailer;
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if(failure == null)
+						writeBlock(b, n);
+					if(failure == null && b == null)
+						writeTrailer(t);
+				} catch(IOException e) {
+					failure= e;
+				} finally {
+					if(b != null)
+						free.add(b);
+				}
+			}
+		});
+	}
+
+	private void writeBlock(double[][] b, int n) throws IOException {
+		int size= n * COLUMNS.length * 8;
+		if(raw == null || raw.capacity() < size)
+			raw= ByteBuffer.allocate(Math.max(size, BLOCK * COLUMNS.length * 8)).order(ByteOrder.LITTLE_ENDIAN);
+		raw.clear();
+		for(int c= 0; b != null && c< COLUMNS.length; c++) {
+			raw.asDoubleBuffer().put(b[c], 0, n);
+			raw.position(raw.position() + n * 8);
+		}
+
+		int length= size;
+		byte[] data= raw.array();
+		if(compressed && n > 0) {
+			if(stored == null || stored.length < size + 64)
+				stored= new byte[size + size / 8 + 64];
+			deflater.reset();
+			deflater.setInput(data, 0, size);
+			deflater.finish();
+			length= deflater.deflate(stored);
+			data= stored;
+		}
+		ByteBuffer h= ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		h.putInt(n).putInt(size).putInt(length).flip();
+		write(h);
+		write(ByteBuffer.wrap(data, 0, length));
+	}
+
+	private void writeTrailer(Map<String, String> t) throws IOException {
+		ByteBuffer b= ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		putEntries(b, t);
+		b.flip();
+		write(b);
+	}
+
+	private void write(ByteBuffer b) throws IOException {
+		while(b.hasRemaining())
+			channel.write(b);
+	}
+
+	private static void putString(ByteBuffer b, String s) {
+		byte[] v= s.getBytes(UTF8);
+		b.putInt(v.length);
+		b.put(v);
+	}
+
+	private static void putEntries(ByteBuffer b, Map<String, String> entries) {
+		b.putInt(entries.size());
+		for(Map.Entry<String, String> e : entries.entrySet()) {
+			putString(b, e.getKey());
+			putString(b, String.valueOf(e.getValue()));
+		}
+	}
+
+	private static String getString(ByteBuffer b) {
+		byte[] v= new byte[b.getInt()];
+		b.get(v);
+		return new String(v, UTF8);
+	}
+
+	/**
+	 * A columnar file read back
+	 */
+	static class Contents {
+		final Map<String, String> header= new LinkedHashMap<String, String>();
+		String[] names;
+		final List<double[]> rows= new ArrayList<double[]>();
+		final Map<String, String> trailer= new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Reads a whole file, which must end with the end mark
+	 */
+	static Contents read(File f) throws IOException, DataFormatException {
+		FileChannel channel= FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		ByteBuffer b;
+		try {
+			b= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			channel.close();
+		}
+		int version= (b.getInt() == MAGIC ? b.getInt() : -1);
+		if(version < 1 || version > VERSION)
+			throw new IOException("Not a columnar output file: " + f);
+		boolean compressed= (b.get() != 0);
+		Contents contents= new Contents();
+		for(int i= b.getInt(); i> 0; i--)
+			contents.header.put(getString(b), getString(b));
+		String[] names= new String[b.getInt()];
+		for(int c= 0; c< names.length; c++)
+			names[c]= getString(b);
+		contents.names= names;
+
+		Inflater inflater= new Inflater();
+		try {
+			for(int n= b.getInt(); n > 0; n= b.getInt()) {
+				int size= b.getInt();
+				byte[] data= new byte[b.getInt()];
+				b.get(data);
+				if(compressed) {
+					byte[] v= new byte[size];
+					inflater.reset();
+					inflater.setInput(data);
+					if(inflater.inflate(v) != size)
+						throw new IOException("Truncated block in " + f);
+					data= v;
+				}
+				ByteBuffer block= ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+				for(int r= 0; r< n; r++) {
+					double[] row= new double[names.length];
+					for(int c= 0; c< names.length; c++)
+						row[c]= block.getDouble((c * n + r) * 8);
+					contents.rows.add(row);
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+		if(b.getInt() != 0 || b.getInt() != 0)
+			throw new IOException("Bad end mark in " + f);
+		for(int i= (version > 1 ? b.getInt() : 0); i> 0; i--)
+			contents.trailer.put(getString(b), getString(b));
+		if(b.hasRemaining())
+			throw new IOException("Data after the trailer of " + f);
+		return contents;
+	}
+
+	/**
+	 * Prints a file as comma separated text, the header entries first and the
+	 * trailer ones last
+	 */
+	public static void main(String[] args) throws IOException, DataFormatException {
+		if(args.length < 1) {
+			System.err.println("Usage: ColumnarSink file.bcol");
+			System.exit(1);
+		}
+		Contents contents= read(new File(args[0]));
+		for(Map.Entry<String, String> e : contents.header.entrySet())
+			System.out.println("# " + e.getKey() + "= " + e.getValue());
+		StringBuilder sb= new StringBuilder();
+		for(int c= 0; c< contents.names.length; c++)
+			sb.append(c > 0 ? "," : "").append('"').append(contents.names[c]).append('"');
+		System.out.println(sb);
+		for(double[] row : contents.rows) {
+			sb.setLength(0);
+			for(int c= 0; c< row.length; c++)
+				sb.append(c > 0 ? "," : "").append(row[c]);
+			System.out.println(sb);
+		}
+		for(Map.Entry<String, String> e : contents.trailer.entrySet())
+			System.out.println("# " + e.getKey() + "= " + e.getValue());
+	}
+}
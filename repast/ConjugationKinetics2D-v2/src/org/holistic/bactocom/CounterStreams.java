@@ -0,0 +1,168 @@
+package org.holistic.bactocom;
+
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Counter based random streams for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Every draw is a Philox4x32-10 block of the counter (draw, phase and process,
+ * tick, agent id) under the key (seed, agent id high bits). The variates drawn
+ * by an agent step thus only depend on the seed, the agent, the tick and the
+ * phase, never on which thread steps the agent nor on what was stepped before.
+ * Each random process (division, gamma, conjugation, uniform, neighborhood and
+ * permutation) has its own counter, so adding a draw to one of them leaves the
+ * others untouched. The normals are drawn by Ziggurat and the conjugation count
+ * by the tabulated Poisson inversion.
+ *
+ * "Parallel random numbers: as easy as 1, 2, 3"
+ * 2011, John K. Salmon, Mark A. Moraes, Ron O. Dror and David E. Shaw
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class CounterStreams extends RandomStreams {
+	private final static long serialVersionUID= 1L;
+	private final static int M0= 0xD2511F53;
+	private final static int M1= 0xCD9E8D57;
+	private final static int W0= 0x9E3779B9;
+	private final static int W1= 0xBB67AE85;
+
+	private final static int DIVISION= 0;
+	private final static int GAMMA= 1;
+	private final static int CONJUGATION= 2;
+	private final static int UNIFORM= 3;
+	private final static int NEIGHBORHOOD= 4;
+	private final static int SHUFFLE= 5;
+	private final static int PROCESSES= 6;
+
+	private final int seed;
+	private final PoissonTable poisson;
+	private final RandomEngine[] engines= new RandomEngine[PROCESSES];
+
+	// The bound step
+	private long id= -1;
+	private int tick= 0;
+	private int phase= 0;
+
+	// Per process counters and the unused words of their last block
+	private final int[] counter= new int[PROCESSES];
+	private final int[][] block= new int[PROCESSES][4];
+	private final int[] used= new int[PROCESSES];
+
+	/**
+	 * @param seed	The simulation random seed
+	 * @param rate	The intrinsic conjugation rate
+	 */
+	public CounterStreams(int seed, double rate) {
+		this.seed= seed;
+		this.poisson= new PoissonTable(rate);
+		for(int p= 0; p< PROCESSES; p++)
+			engines[p]= new ProcessEngine(p);
+		bind(-1, 0, 0);
+	}
+
+	@Override
+	public void bind(long id, long tick, int phase) {
+		this.id= id;
+		this.tick= (int) tick;
+		this.phase= phase;
+		for(int p= 0; p< PROCESSES; p++) {
+			counter[p]= 0;
+			used[p]= 4;
+		}
+	}
+
+	@Override
+	public double nextDivision() {
+		return nextNormal(DIVISION);
+	}
+
+	@Override
+	public double nextGamma() {
+		return nextNormal(GAMMA);
+	}
+
+	@Override
+	public int nextConjugation() {
+		double u= nextDouble(CONJUGATION);
+		return poisson.sample(u, poisson.isApproximate() ? nextNormal(CONJUGATION) : 0);
+	}
+
+	@Override
+	public double nextUniform() {
+		return nextDouble(UNIFORM);
+	}
+
+	@Override
+	public int nextIndex(int n) {
+		return (int) (((nextInt(NEIGHBORHOOD) & 0xffffffffL) * n) >>> 32);
+	}
+
+	@Override
+	public int nextShuffle(int n) {
+		return (int) (((nextInt(SHUFFLE) & 0xffffffffL) * n) >>> 32);
+	}
+
+	private double nextNormal(int process) {
+		return Ziggurat.nextNormal(engines[process]);
+	}
+
+	/**
+	 * @return a uniform variate in the open interval (0, 1) with 53 random bits
+	 */
+	private double nextDouble(int process) {
+		long a= (nextInt(process) >>> 6) & 0x3ffffffL;
+		long b= (nextInt(process) >>> 5) & 0x7ffffffL;
+		return (((a << 27) | b) + 0.5D) * 0x1.0p-53;
+	}
+
+	private int nextInt(int process) {
+		if(used[process] == 4) {
+			philox(seed, (int) (id >>> 32), counter[process]++, (phase << 8) | process, tick, (int) id, block[process]);
+			used[process]= 0;
+		}
+		return block[process][used[process]++];
+	}
+
+	/**
+	 * Philox4x32 with 10 rounds of the counter (c0, c1, c2, c3) under the
+	 * key (k0, k1), the four words of the block go to out
+	 */
+	static void philox(int k0, int k1, int c0, int c1, int c2, int c3, int[] out) {
+		for(int r= 0; r< 10; r++) {
+			long p0= (c0 & 0xffffffffL) * (M0 & 0xffffffffL);
+			long p1= (c2 & 0xffffffffL) * (M1 & 0xffffffffL);
+			int n0= (int) (p1 >>> 32) ^ c1 ^ k0;
+			int n2= (int) (p0 >>> 32) ^ c3 ^ k1;
+			c0= n0;
+			c1= (int) p1;
+			c2= n2;
+			c3= (int) p0;
+			k0+= W0;
+			k1+= W1;
+		}
+		out[0]= c0;
+		out[1]= c1;
+		out[2]= c2;
+		out[3]= c3;
+	}
+
+	/**
+	 * The 32 bit words of one process, as seen by the Ziggurat sampler
+	 */
+	private class ProcessEngine extends RandomEngine {
+		private final static long serialVersionUID= 1L;
+		private final int process;
+
+		ProcessEngine(int process) {
+			this.process= process;
+		}
+
+		@Override
+		public int nextInt() {
+			return CounterStreams.this.nextInt(process);
+		}
+	}
+}
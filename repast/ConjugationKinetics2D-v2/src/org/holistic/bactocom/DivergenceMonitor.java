@@ -0,0 +1,164 @@
+package org.holistic.bactocom;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Divergence monitor for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Accumulates the squared difference between the simulated T/(R+T) and the
+ * experimental curve at the recorded ticks (5 and then every 10 ticks) of one
+ * or several runs (the replicates of a calibration candidate). The fitting error
+ * is the mean over every recorded tick of every run; the differences are never
+ * negative, so the sum so far divided by the samples of the full runs is a lower
+ * bound of the final error. Once that bound is over the tolerance, or reaches the
+ * error to beat, the runs cannot succeed and are stopped.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class DivergenceMonitor {
+	public enum Reason {
+		TOLERANCE("the fitting error can no longer be under the tolerance"),
+		BOUND("the fitting error can no longer beat the best candidate");
+
+		private final String description;
+
+		private Reason(String description) {
+			this.description= description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private final double tolerance;		// The highest acceptable error, 0 for none
+	private final double bound;			// The error to beat
+	private final int samples;			// The recorded ticks of all the runs
+	private double sum= 0;
+	private volatile Reason reason= null;
+	private volatile double stoppedAt= -1;
+
+	/**
+	 * @param tolerance	The highest acceptable error, 0 for none
+	 * @param bound		The error to beat, Double.MAX_VALUE for none
+	 * @param runs		The runs sharing the monitor
+	 */
+	public DivergenceMonitor(double tolerance, double bound, int runs) {
+		this.tolerance= tolerance;
+		this.bound= bound;
+		this.samples= Math.max(1, runs * getSamples(MyParameters.END_AT));
+	}
+
+	/**
+	 * @return true if the metrics of a tick are part of the fitting error
+	 */
+	public static boolean isSampled(double tick) {
+		return tick >= HeadlessEngine.RECORD_START && (tick - HeadlessEngine.RECORD_START) % HeadlessEngine.RECORD_INTERVAL == 0;
+	}
+
+	/**
+	 * @return the recorded ticks of a run that ends at the given tick
+	 */
+	public static int getSamples(double endAt) {
+		if(endAt < HeadlessEngine.RECORD_START) return 0;
+		return (int) Math.floor((endAt - HeadlessEngine.RECORD_START) / HeadlessEngine.RECORD_INTERVAL) + 1;
+	}
+
+	/**
+	 * @return the squared difference between the simulated and the experimental T/(R+T)
+	 */
+	public static double error(MetricsSnapshot m) {
+		double RT= m.getR() + m.getT();
+		double d= (RT > 0 ? m.getT() / RT : 0) - m.getExperimental();
+		return d * d;
+	}
+
+	/**
+	 * Adds the metrics of a recorded tick
+	 *
+	 * @return true if the runs must stop
+	 */
+	public synchronized boolean sample(MetricsSnapshot m) {
+		if(reason != null) return true;
+		sum+= error(m);
+		double lower= sum / samples;
+		if(tolerance > 0 && lower > tolerance)
+			stop(Reason.TOLERANCE, m.getTick());
+		else if(lower >= bound)
+			stop(Reason.BOUND, m.getTick());
+		return reason != null;
+	}
+
+	/**
+	 * @return the squared differences accumulated so far
+	 */
+	synchronized double getSum() {
+		return sum;
+	}
+
+	/**
+	 * Adds the squared differences of the ticks before a restored checkpoint
+	 */
+	synchronized void resume(double v) {
+		sum+= v;
+	}
+
+	private void stop(Reason r, double tick) {
+		stoppedAt= tick;
+		reason= r;
+	}
+
+	public boolean isStopped() {
+		return reason != null;
+	}
+
+	/**
+	 * @return why the runs were stopped, null if they were not
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return the tick the runs were stopped at, -1 if they were not
+	 */
+	public double getStoppedAt() {
+		return stoppedAt;
+	}
+
+	/**
+	 * The outcome written at the end of the run outputs
+	 *
+	 * @return the status, the reason (none if the runs completed), the stopping
+	 * tick (-1 if they completed) and the error, by name
+	 */
+	public Map<String, String> getStatusEntries() {
+		Reason r= reason;
+		Map<String, String> m= new LinkedHashMap<String, String>();
+		m.put("status", getStatus());
+		m.put("reason", (r == null ? "none" : r.name()));
+		m.put("stopped_at", String.valueOf(getStoppedAt()));
+		m.put("error", String.valueOf(getError()));
+		return m;
+	}
+
+	/**
+	 * @return the fitting error, a lower bound of it if the runs were stopped
+	 */
+	public synchronized double getError() {
+		return sum / samples;
+	}
+
+	/**
+	 * @return a description of the outcome
+	 */
+	public String getStatus() {
+		Reason r= reason;
+		if(r == null) return "completed, error= " + getError();
+		return "stopped at tick " + stoppedAt + ", " + r.getDescription() + " (error >= " + getError() + ")";
+	}
+}
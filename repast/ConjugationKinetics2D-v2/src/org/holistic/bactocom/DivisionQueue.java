@@ -0,0 +1,168 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Division event queue for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * A binary min-heap of agent slots keyed on their next division time. A cell
+ * is queued when it is born and again after every division attempt, so each
+ * tick only the cells that are due have to be visited. Entries are never
+ * removed in place: an entry is stale once its agent has been released, has
+ * been rescheduled or is starved, and stale entries are dropped when polled.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class DivisionQueue {
+	private final static int INITIAL_CAPACITY= 1024;
+
+	private double[] time;			// The heap of division times
+	private int[] slot;				// The agent slot of each entry
+	private long[] id;				// The agent id of each entry, guards against slot reuse
+	private int n= 0;
+
+	private int[] due;				// The slots drained by the last poll
+	private int ndue= 0;
+
+	DivisionQueue() {
+		reset();
+	}
+
+	public static DivisionQueue getInstance() {
+		return ModelRun.current().queue;
+	}
+
+	/**
+	 * Drops every queued event
+	 */
+	public void reset() {
+		time= new double[INITIAL_CAPACITY];
+		slot= new int[INITIAL_CAPACITY];
+		id= new long[INITIAL_CAPACITY];
+		due= new int[INITIAL_CAPACITY];
+		n= 0;
+		ndue= 0;
+	}
+
+	/**
+	 * @return the number of queued entries, including the stale ones
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Queues the agent with its current division time (as kept by the store)
+	 *
+	 * @param b The agent
+	 */
+	public void add(Bacterium b) {
+		BacteriumStore store= BacteriumStore.getInstance();
+		int s= b.getSlot();
+		if(n == time.length) {
+			time= Arrays.copyOf(time, n * 2);
+			slot= Arrays.copyOf(slot, n * 2);
+			id= Arrays.copyOf(id, n * 2);
+		}
+		time[n]= store.due[s];
+		slot[n]= s;
+		id[n]= store.id[s];
+		up(n++);
+	}
+
+	/**
+	 * Removes every entry due at or before t, the live ones are kept
+	 * on the drained buffer.
+	 *
+	 * @param t The current tick
+	 * @return The number of agents due
+	 */
+	public int poll(double t) {
+		BacteriumStore store= BacteriumStore.getInstance();
+		ndue= 0;
+		while(n > 0 && time[0] <= t) {
+			double k= time[0];
+			int s= slot[0];
+			long i= id[0];
+			pop();
+			if(!store.isAlive(s) || store.id[s] != i) continue;
+			if(store.due[s] != k || store.starved[s]) continue;
+			if(ndue == due.length)
+				due= Arrays.copyOf(due, ndue * 2);
+			due[ndue++]= s;
+		}
+		return ndue;
+	}
+
+	/**
+	 * @return The slot of the i-th agent drained by the last poll
+	 */
+	public int getDue(int i) {
+		return due[i];
+	}
+
+	/**
+	 * Writes the queued entries to a checkpoint, in heap order
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		out.putInt(n);
+		out.putDoubles(time, 0, n);
+		out.putInts(slot, 0, n);
+		out.putLongs(id, 0, n);
+	}
+
+	/**
+	 * Reads the queued entries from a checkpoint
+	 */
+	void restore(Checkpoint.Input in) {
+		n= in.getInt();
+		int c= INITIAL_CAPACITY;
+		while(c < n) c*= 2;
+		time= new double[c];
+		slot= new int[c];
+		id= new long[c];
+		in.getDoubles(time, 0, n);
+		in.getInts(slot, 0, n);
+		in.getLongs(id, 0, n);
+		ndue= 0;
+	}
+
+	private void pop() {
+		n--;
+		if(n == 0) return;
+		time[0]= time[n];
+		slot[0]= slot[n];
+		id[0]= id[n];
+		down(0);
+	}
+
+	private void up(int i) {
+		while(i > 0) {
+			int p= (i - 1) >>> 1;
+			if(time[p] <= time[i]) break;
+			swap(i, p);
+			i= p;
+		}
+	}
+
+	private void down(int i) {
+		while(true) {
+			int l= 2 * i + 1;
+			if(l >= n) break;
+			int c= (l + 1 < n && time[l + 1] < time[l] ? l + 1 : l);
+			if(time[i] <= time[c]) break;
+			swap(i, c);
+			i= c;
+		}
+	}
+
+	private void swap(int i, int j) {
+		double t= time[i]; time[i]= time[j]; time[j]= t;
+		int s= slot[i]; slot[i]= slot[j]; slot[j]= s;
+		long d= id[i]; id[i]= id[j]; id[j]= d;
+	}
+}
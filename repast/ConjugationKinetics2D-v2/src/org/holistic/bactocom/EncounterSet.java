@@ -0,0 +1,176 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Per agent record of the cells already met, used to account D|T to R encounters.
+ *
+ * The exact mode is an open addressing hash set of agent ids (linear probing over a
+ * primitive long array). The approximate mode is a fixed size Bloom filter, it never
+ * grows but may occasionally take a new encounter as an already seen one.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public abstract class EncounterSet {
+
+	/**
+	 * Records an encounter
+	 *
+	 * @param id The agent id of the neighbor cell
+	 * @return true if the cell had not been met before
+	 */
+	public abstract boolean add(long id);
+
+	/**
+	 * @return the number of distinct cells recorded
+	 */
+	public abstract int size();
+
+	/**
+	 * Creates an empty set in the mode selected by the approximateEncounters
+	 * run parameter
+	 *
+	 * @return the encounter set
+	 */
+	public static EncounterSet create() {
+		return (MyParameters.isApproximateEncounters() ? new Approximate() : new Exact());
+	}
+
+	/**
+	 * Writes a set (or its absence) to a checkpoint
+	 */
+	static void save(Checkpoint.Output out, EncounterSet v) throws IOException {
+		if(v instanceof Exact) {
+			Exact e= (Exact) v;
+			out.putByte((byte) 1);
+			out.putInt(e.size);
+			out.putInt(e.keys.length);
+			out.putLongs(e.keys, 0, e.keys.length);
+		} else if(v instanceof Approximate) {
+			Approximate a= (Approximate) v;
+			out.putByte((byte) 2);
+			out.putInt(a.size);
+			out.putLongs(a.bits, 0, a.bits.length);
+		} else {
+			out.putByte((byte) 0);
+		}
+	}
+
+	/**
+	 * Reads a set written by save()
+	 *
+	 * @return the set or null
+	 */
+	static EncounterSet restore(Checkpoint.Input in) {
+		switch(in.getByte()) {
+		case 1:
+			Exact e= new Exact();
+			e.size= in.getInt();
+			e.keys= new long[in.getInt()];
+			in.getLongs(e.keys, 0, e.keys.length);
+			return e;
+		case 2:
+			Approximate a= new Approximate();
+			a.size= in.getInt();
+			in.getLongs(a.bits, 0, a.bits.length);
+			return a;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * 64 bit finalizer from MurmurHash3
+	 */
+	static long mix(long v) {
+		v^= v >>> 33;
+		v*= 0xff51afd7ed558ccdL;
+		v^= v >>> 33;
+		v*= 0xc4ceb9fe1a85ec53L;
+		v^= v >>> 33;
+		return v;
+	}
+
+	/**
+	 * Exact set of non negative agent ids
+	 */
+	static class Exact extends EncounterSet {
+		private final static long EMPTY= -1;
+		private long[] keys;
+		private int size= 0;
+
+		Exact() {
+			keys= new long[8];
+			Arrays.fill(keys, EMPTY);
+		}
+
+		@Override
+		public boolean add(long id) {
+			int mask= keys.length - 1;
+			int i= (int) mix(id) & mask;
+			while(keys[i] != EMPTY) {
+				if(keys[i] == id) return false;
+				i= (i + 1) & mask;
+			}
+			keys[i]= id;
+			size++;
+			if(size * 2 > keys.length)
+				rehash(keys.length * 2);
+			return true;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		private void rehash(int n) {
+			long[] old= keys;
+			keys= new long[n];
+			Arrays.fill(keys, EMPTY);
+			int mask= n - 1;
+			for(long k : old) {
+				if(k == EMPTY) continue;
+				int i= (int) mix(k) & mask;
+				while(keys[i] != EMPTY)
+					i= (i + 1) & mask;
+				keys[i]= k;
+			}
+		}
+	}
+
+	/**
+	 * Fixed memory Bloom filter with 1024 bits and three probes
+	 */
+	static class Approximate extends EncounterSet {
+		private final static int BITS= 1024;
+		private final long[] bits= new long[BITS / 64];
+		private int size= 0;
+
+		@Override
+		public boolean add(long id) {
+			long h= mix(id);
+			int h1= (int) h;
+			int h2= (int) (h >>> 32);
+			boolean seen= true;
+			for(int k= 0; k< 3; k++) {
+				int b= (h1 + k * h2) & (BITS - 1);
+				long m= 1L << (b & 63);
+				if((bits[b >>> 6] & m) == 0) {
+					seen= false;
+					bits[b >>> 6]|= m;
+				}
+			}
+			if(!seen) size++;
+			return !seen;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -1,11 +1,42 @@
 package org.holistic.bactocom;
 
+import org.nfunk.jep.ASTConstant;
+import org.nfunk.jep.ASTFunNode;
+import org.nfunk.jep.ASTVarNode;
 import org.nfunk.jep.JEP;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.Operator;
+import org.nfunk.jep.OperatorSet;
+import org.nfunk.jep.Variable;
 
+/**
+ * The experimental curve y= f(x), as given by the equation parameter.
+ *
+ * The expression is parsed once by JEP and then compiled: polynomials in x
+ * (the usual fitted curves) are evaluated by Horner's rule, other expressions
+ * are tabulated by JEP at every tick on [0, endAt]. JEP is only called for
+ * arguments out of the table.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
 public class FitnessFunction {
+	private final static int MAX_DEGREE= 16;
+
 	private JEP parser;
-	
+	private double[] poly= null;		// Polynomial coefficients, lowest degree first
+	private double[] table= null;		// The curve value at every tick
+
 	public FitnessFunction(String s) {
+		this(s, MyParameters.END_AT);
+	}
+
+	/**
+	 * @param s		The expression
+	 * @param endAt	The last tick to tabulate for non polynomial expressions
+	 */
+	public FitnessFunction(String s, double endAt) {
 		parser= new JEP();
 		parser.initSymTab();
         parser.addStandardConstants();
@@ -15,16 +46,131 @@ public class FitnessFunction {
         parser.setAllowAssignment(true);
         parser.setAllowUndeclared(true);
         parser.parseExpression(s);
+
+        if(parser.hasError()) return;
+        poly= toPolynomial(parser.getTopNode());
+        if(poly == null) {
+        	table= new double[(int) Math.floor(endAt) + 1];
+        	for(int i= 0; i< table.length; i++)
+        		table[i]= interpret(i);
+        }
 	}
-	
+
 	public Double getValue(Double x) {
-	     parser.setVarValue("x", x);
-	     double v= parser.getValue();
-         return v;
+		return getValue(x.doubleValue());
 	}
-	
+
+	public double getValue(double x) {
+		if(poly != null) {
+			double v= 0;
+			for(int i= poly.length - 1; i>= 0; i--)
+				v= v * x + poly[i];
+			return v;
+		}
+		if(table != null && x >= 0 && x < table.length && x == Math.rint(x))
+			return table[(int) x];
+		return interpret(x);
+	}
+
+	/**
+	 * @return true if the expression has been recognized as a polynomial
+	 */
+	public boolean isPolynomial() {
+		return poly != null;
+	}
+
 	public JEP getParser(){
 		return parser;
 	}
-	
+
+	private double interpret(double x) {
+		parser.setVarValue("x", x);
+		return parser.getValue();
+	}
+
+	/**
+	 * Folds the expression tree into polynomial coefficients
+	 *
+	 * @param n The expression node
+	 * @return the coefficients or null if it is not a polynomial in x
+	 */
+	private double[] toPolynomial(Node n) {
+		if(n instanceof ASTConstant) {
+			Object v= ((ASTConstant) n).getValue();
+			return (v instanceof Number ? new double[] { ((Number) v).doubleValue() } : null);
+		}
+		if(n instanceof ASTVarNode) {
+			Variable v= ((ASTVarNode) n).getVar();
+			if("x".equals(v.getName()))
+				return new double[] { 0, 1 };
+			if(v.isConstant() && v.getValue() instanceof Number)
+				return new double[] { ((Number) v.getValue()).doubleValue() };
+			return null;
+		}
+		if(!(n instanceof ASTFunNode) || !((ASTFunNode) n).isOperator())
+			return null;
+
+		Operator op= ((ASTFunNode) n).getOperator();
+		OperatorSet ops= parser.getOperatorSet();
+		int c= n.jjtGetNumChildren();
+		double[][] a= new double[c][];
+		for(int i= 0; i< c; i++) {
+			// The assigned variable is not part of the value
+			if(op == ops.getAssign() && i == 0) continue;
+			a[i]= toPolynomial(n.jjtGetChild(i));
+			if(a[i] == null) return null;
+		}
+
+		if(op == ops.getAssign() && c == 2)
+			return a[1];
+		if(op == ops.getUMinus() && c == 1)
+			return scale(a[0], -1);
+		if(op == ops.getAdd() || op == ops.getSubtract()) {
+			double[] v= a[0];
+			for(int i= 1; i< c; i++)
+				v= add(v, (op == ops.getAdd() ? a[i] : scale(a[i], -1)));
+			return v;
+		}
+		if(op == ops.getMultiply()) {
+			double[] v= a[0];
+			for(int i= 1; i< c && v != null; i++)
+				v= multiply(v, a[i]);
+			return v;
+		}
+		if(op == ops.getDivide() && c == 2 && a[1].length == 1 && a[1][0] != 0)
+			return scale(a[0], 1 / a[1][0]);
+		if(op == ops.getPower() && c == 2 && a[1].length == 1) {
+			double e= a[1][0];
+			if(e < 0 || e != Math.rint(e) || e * (a[0].length - 1) > MAX_DEGREE) return null;
+			double[] v= new double[] { 1 };
+			for(int i= 0; i< (int) e; i++)
+				v= multiply(v, a[0]);
+			return v;
+		}
+		return null;
+	}
+
+	private static double[] scale(double[] a, double k) {
+		double[] v= new double[a.length];
+		for(int i= 0; i< a.length; i++)
+			v[i]= a[i] * k;
+		return v;
+	}
+
+	private static double[] add(double[] a, double[] b) {
+		double[] v= new double[Math.max(a.length, b.length)];
+		for(int i= 0; i< a.length; i++) v[i]+= a[i];
+		for(int i= 0; i< b.length; i++) v[i]+= b[i];
+		return v;
+	}
+
+	private static double[] multiply(double[] a, double[] b) {
+		if(a.length + b.length - 2 > MAX_DEGREE) return null;
+		double[] v= new double[a.length + b.length - 1];
+		for(int i= 0; i< a.length; i++)
+			for(int j= 0; j< b.length; j++)
+				v[i + j]+= a[i] * b[j];
+		return v;
+	}
+
 }
@@ -0,0 +1,75 @@
+package org.holistic.bactocom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Branching point for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The state of a run at a tick, kept in memory as a checkpoint image. Runs
+ * started from it (see HeadlessEngine.setFork) skip the ticks before it and go
+ * on with their own parameters and random streams, so a sweep over parameters
+ * that do not act before the branching tick (as TI or isOnlyOriT before the
+ * first donor to recipient contact) simulates that shared prefix only once.
+ *
+ * The image is read only and shared by every branch, each branch loads its
+ * own copy of the lattice, nutrient field and agent store.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class Fork {
+	private final ByteBuffer image;
+	private final double tick;
+
+	Fork(ByteBuffer image, double tick) {
+		this.image= image.asReadOnlyBuffer();
+		this.tick= tick;
+	}
+
+	/**
+	 * Branches from a checkpoint file
+	 *
+	 * @param f The checkpoint
+	 * @return the branching point
+	 */
+	public static Fork load(File f) throws IOException {
+		FileChannel channel= FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer image= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			double tick= image.duplicate().order(ByteOrder.LITTLE_ENDIAN).getDouble(8);	// After the magic and the version
+			return new Fork(image, tick);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the tick the branches start after
+	 */
+	public double getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the size of the image in bytes
+	 */
+	public int size() {
+		return image.capacity();
+	}
+
+	/**
+	 * Replaces the state of the current run with a branch of this point
+	 *
+	 * @return the tick the run goes on after
+	 */
+	double branch() throws IOException {
+		return Checkpoint.branch(image);
+	}
+}
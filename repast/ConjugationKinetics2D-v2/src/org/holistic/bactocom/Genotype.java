@@ -1,31 +1,94 @@
 package org.holistic.bactocom;
 
+import java.io.IOException;
 
+
+/**
+ * Compact agent and clone identifiers.
+ * 
+ * Agents are identified by a monotonically allocated long and every clonal lineage 
+ * by an int, both are kept on the BacteriumStore. The printable genome strings are 
+ * only made on demand, from the clone identifier and the seed of the run, so runs 
+ * with the same seed (or restored from a checkpoint) print the same genomes.
+ * 
+ * 
+ * @author APG, ARPA
+ *
+ */
 public class Genotype {
-	private String genome= null;
+	// The identifiers of a run, see ModelRun
+	private long nextId= 0;
+	private int nextClone= 0;
 	
-	public Genotype() {
-		createGenome();
+	Genotype() {
 	}
 	
-	public Genotype(String v) {
-		setGenome(v);
+	/**
+	 * Restarts the identifiers for a new run
+	 */
+	public static void reset() {
+		Genotype g= ModelRun.current().genotype;
+		g.nextId= 0;
+		g.nextClone= 0;
 	}
-
-	public void createGenome() {
-		setGenome(java.util.UUID.randomUUID().toString());
+	
+	/**
+	 * @return a new agent identifier
+	 */
+	public static long createId() {
+		return ModelRun.current().genotype.nextId++;
+	}
+	
+	/**
+	 * Reserves a block of consecutive agent identifiers
+	 * 
+	 * @param n The number of identifiers
+	 * @return the first identifier of the block
+	 */
+	public static long reserveIds(int n) {
+		Genotype g= ModelRun.current().genotype;
+		long v= g.nextId;
+		g.nextId+= n;
+		return v;
+	}
+	
+	/**
+	 * @return a new clone identifier
+	 */
+	public static int createGenome() {
+		return ModelRun.current().genotype.nextClone++;
 	}
 	
-	public void setGenome(String v) {
-		genome= v;
+	/**
+	 * Writes the identifier counters to a checkpoint, the genome strings are
+	 * made again on demand
+	 */
+	static void save(Checkpoint.Output out) throws IOException {
+		Genotype g= ModelRun.current().genotype;
+		out.putLong(g.nextId);
+		out.putInt(g.nextClone);
 	}
 	
-	public String getGenome() {
-		return genome;
+	/**
+	 * Reads the identifier counters from a checkpoint
+	 */
+	static void restore(Checkpoint.Input in) {
+		reset();
+		Genotype g= ModelRun.current().genotype;
+		g.nextId= in.getLong();
+		g.nextClone= in.getInt();
 	}
 	
-	public boolean isEqual(Genotype o) {
-		return getGenome().equalsIgnoreCase(o.getGenome());
+	/**
+	 * Maps a clone identifier back to a printable genome
+	 * 
+	 * @param clone The clone identifier
+	 * @return The genome string
+	 */
+	public static String getGenome(int clone) {
+		long key= ((long) SimulationContext.getInstance().getSeed() << 32) | (clone & 0xffffffffL);
+		long v= EncounterSet.mix(key);
+		return String.format("%016x%016x", v, EncounterSet.mix(v ^ key));
 	}
 
 }
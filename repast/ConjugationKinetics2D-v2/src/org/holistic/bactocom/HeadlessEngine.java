@@ -0,0 +1,431 @@
+package org.holistic.bactocom;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.holistic.bactocom.datasources.DonorDensity;
+import org.holistic.bactocom.datasources.Gamma0;
+import org.holistic.bactocom.datasources.Gamma0D;
+import org.holistic.bactocom.datasources.Gamma0T;
+import org.holistic.bactocom.datasources.GammaEndpoint;
+import org.holistic.bactocom.datasources.GammaExperimentalT2RT;
+import org.holistic.bactocom.datasources.GammaI;
+import org.holistic.bactocom.datasources.GammaT2RT;
+import org.holistic.bactocom.datasources.GenerationTimeAll;
+import org.holistic.bactocom.datasources.GenerationTimeD;
+import org.holistic.bactocom.datasources.GenerationTimeR;
+import org.holistic.bactocom.datasources.GenerationTimeT;
+import org.holistic.bactocom.datasources.PlasmidName;
+import org.holistic.bactocom.datasources.PopulationAll;
+import org.holistic.bactocom.datasources.PopulationDonors;
+import org.holistic.bactocom.datasources.PopulationRecipient;
+import org.holistic.bactocom.datasources.PopulationTransconjugant;
+import org.holistic.bactocom.datasources.RCh;
+import org.holistic.bactocom.datasources.RCt;
+import org.holistic.bactocom.datasources.RCv;
+import org.holistic.bactocom.datasources.Time;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+import repast.simphony.data2.AggregateDataSource;
+
+/**
+ * Headless engine for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Builds the same model as MyContextBuilder without the Repast runtime (no
+ * scenario, schedule, context, grid or display), steps it tick by tick up to
+ * END_AT and writes the output columns every time the DS::All data set
+ * would record (tick 5 and then every 10 ticks). Every run gets its own
+ * ModelRun, so engines may run concurrently on different threads.
+ *
+ * At the same ticks the run is scored against the experimental curve by a
+ * DivergenceMonitor, which stops it early once it cannot succeed. The monitor
+ * is made from the abortTolerance parameter unless one is given. Its status
+ * ends the output, so a stopped run tells why and when.
+ *
+ * A run can start from a Checkpoint instead of the initial population, and can
+ * write one every number of ticks, so a crashed run resumes from the last one.
+ * It can also start from a Fork, a state kept in memory that many runs with
+ * different parameters branch from.
+ *
+ * Instead of the tabular text the rows can be written to a ColumnarSink, an
+ * output file ending in .bcol selects it (deflated unless compress=false). The
+ * outputFormat parameter makes the same choice for the Repast runs.
+ *
+ * Usage: HeadlessEngine parameters.xml output.txt|output.bcol [run=n] [restore=file]
+ *                       [checkpoint=file] [every=ticks] [compress=false] [name=value ...]
+ * The parameters file has the format of the scenario parameters.xml, the
+ * name=value pairs override its default values.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class HeadlessEngine {
+	public final static double RECORD_START= 5;		// The DS::All schedule
+	public final static double RECORD_INTERVAL= 10;
+	public final static String NULL= "__NULL__";	// Repast's empty default value
+
+	// The output sources (as the former FS::Model), in file order. The run and the seed are added by the sinks.
+	final static AggregateDataSource[] COLUMNS= {
+		new Time(), null, null, new Gamma0(), new Gamma0D(), new Gamma0T(), new GammaI(),
+		new DonorDensity(), new GammaEndpoint(), new GammaT2RT(), new PlasmidName(),
+		new GenerationTimeAll(), new GenerationTimeD(), new GenerationTimeR(), new GenerationTimeT(),
+		new PopulationAll(), new PopulationDonors(), new PopulationRecipient(), new PopulationTransconjugant(),
+		new RCh(), new RCv(), new RCt(), new GammaExperimentalT2RT()
+	};
+	private final static String RUN= "run";
+	private final static String RESTORE= "restore";
+	private final static String CHECKPOINT= "checkpoint";
+	private final static String EVERY= "every";
+	private final static String COMPRESS= "compress";
+	public final static String COLUMNAR_EXTENSION= ".bcol";
+	public final static int CHECKPOINT_INTERVAL= 60;		// Ticks between checkpoints by default
+
+	private final Map<String, Object> values;
+	private DivergenceMonitor given= null;			// The monitor of the next runs, null to make one per run
+	private DivergenceMonitor monitor= null;		// The monitor of the last run
+	private File restore= null;						// The checkpoint the runs start from, null to build them
+	private Fork fork= null;						// The state the runs branch from, null for none
+	private File checkpoint= null;					// The checkpoint the runs write, null for none
+	private int every= CHECKPOINT_INTERVAL;
+	private File columnar= null;					// The columnar output of the runs, null for none
+	private boolean compressed= true;
+
+	/**
+	 * @return the output sources with numeric values, in file order. The run,
+	 * the seed and the plasmid name are constant over a run.
+	 */
+	static AggregateDataSource[] getNumericColumns() {
+		List<AggregateDataSource> l= new ArrayList<AggregateDataSource>();
+		for(AggregateDataSource c : COLUMNS) {
+			if(c != null && !(c instanceof PlasmidName))
+				l.add(c);
+		}
+		return l.toArray(new AggregateDataSource[l.size()]);
+	}
+
+	/**
+	 * @param values The model parameters by name
+	 */
+	public HeadlessEngine(Map<String, Object> values) {
+		this.values= new HashMap<String, Object>(values);
+		if(this.values.get(MyParameters.PN_RANDOM_SEED) == null)
+			this.values.put(MyParameters.PN_RANDOM_SEED, (int) System.currentTimeMillis());
+	}
+
+	/**
+	 * Runs the model once on a fresh ModelRun bound to the calling thread
+	 *
+	 * @param out		The output, null for the columnar output only
+	 * @param run		The run number written on every row
+	 * @param header	Whether the column names are written first
+	 */
+	public void run(Writer out, int run, boolean header) throws IOException {
+		simulate(out, run, header);
+	}
+
+	/**
+	 * Runs the model once with no output
+	 *
+	 * @return the mean squared difference between the simulated T/(R+T) and the
+	 * experimental curve over the recorded ticks, a lower bound of it if the run
+	 * was stopped
+	 */
+	public double fit() {
+		try {
+			simulate(null, 0, false);
+		} catch(IOException e) {
+			throw new IllegalStateException(e);		// No output, cannot happen
+		}
+		return monitor.getError();
+	}
+
+	/**
+	 * Sets the monitor of the next runs, null to make one from the parameters
+	 */
+	public void setMonitor(DivergenceMonitor m) {
+		given= m;
+	}
+
+	/**
+	 * @return the monitor of the last run, it tells whether and why it was stopped
+	 */
+	public DivergenceMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Starts the next runs from a checkpoint
+	 *
+	 * @param f The checkpoint, null to build the initial population
+	 */
+	public void setRestore(File f) {
+		restore= f;
+	}
+
+	/**
+	 * Branches the next runs from a state kept in memory, they take their own
+	 * parameters and random streams from the branching tick on
+	 *
+	 * @param f The branching point, null to build the initial population
+	 */
+	public void setFork(Fork f) {
+		fork= f;
+	}
+
+	/**
+	 * Runs the model up to a tick on a fresh ModelRun and keeps its state
+	 *
+	 * @param tick The branching tick
+	 * @return the branching point
+	 */
+	public Fork fork(double tick) throws IOException {
+		ModelRun previous= new ModelRun(values).enter();
+		try {
+			double t0= start();
+			TickScheduler scheduler= TickScheduler.getInstance();
+			SimulationContext simulation= SimulationContext.getInstance();
+			for(double t= t0 + 1; t<= tick; t++) {
+				simulation.setTick(t);
+				scheduler.step();
+			}
+			return new Fork(Checkpoint.capture(), simulation.getTick());
+		} finally {
+			TickScheduler.getInstance().setTiles(0, 0);
+			ModelRun.exit(previous);
+		}
+	}
+
+	/**
+	 * Makes the next runs write a checkpoint periodically, every save replaces the previous one
+	 *
+	 * @param f		The checkpoint, null for none
+	 * @param ticks	The ticks between checkpoints
+	 */
+	public void setCheckpoint(File f, int ticks) {
+		checkpoint= f;
+		every= Math.max(1, ticks);
+	}
+
+	/**
+	 * Writes the rows of the next runs to a columnar file too, the run
+	 * constants going on its header
+	 *
+	 * @param f				The file, null for none
+	 * @param compressed	Whether the blocks are deflated
+	 */
+	public void setColumnar(File f, boolean compressed) {
+		this.columnar= f;
+		this.compressed= compressed;
+	}
+
+	/**
+	 * @return true if the file is a columnar output file, by its extension
+	 */
+	public static boolean isColumnar(File f) {
+		return f.getName().endsWith(COLUMNAR_EXTENSION);
+	}
+
+	/**
+	 * @param out	The output, null for none
+	 */
+	private void simulate(Writer out, int run, boolean header) throws IOException {
+		ModelRun previous= new ModelRun(values).enter();
+		ColumnarSink sink= null;
+		try {
+			double t0= start();
+			TextSink text= (out != null ? new TextSink(out, run, header) : null);
+			if(columnar != null)
+				sink= new ColumnarSink(columnar, compressed, ColumnarSink.getRunHeader(run));
+			TickScheduler scheduler= TickScheduler.getInstance();
+			SimulationContext simulation= SimulationContext.getInstance();
+			for(double t= t0 + 1; t<= MyParameters.END_AT && !monitor.isStopped(); t++) {
+				simulation.setTick(t);
+				scheduler.step();
+				if(text != null && DivergenceMonitor.isSampled(t))
+					text.record();
+				if(sink != null && DivergenceMonitor.isSampled(t))
+					sink.record();
+				if(checkpoint != null && t % every == 0)
+					Checkpoint.save(checkpoint);
+			}
+			if(text != null) {
+				text.writeStatus();
+				text.flush();
+			}
+			if(sink != null)
+				sink.end();
+		} finally {
+			if(sink != null)
+				sink.close();
+			TickScheduler.getInstance().setTiles(0, 0);
+			ModelRun.exit(previous);
+		}
+	}
+
+	/**
+	 * Sets the run up from the fork, the checkpoint or the initial population
+	 *
+	 * @return the tick the run starts from
+	 */
+	private double start() throws IOException {
+		return (fork != null || restore != null ? resume() : build());
+	}
+
+	/**
+	 * The MyContextBuilder sequence over the in process lattice
+	 *
+	 * @return the tick the run starts from
+	 */
+	private double build() {
+		int width= MyParameters.getWidth();
+		int height= MyParameters.getHeight();
+		int seed= MyParameters.getRandomSeed();
+		double rate= MyParameters.getIntrinsicConjugationRate();
+
+		BacteriumStore.getInstance().reset();
+		Genotype.reset();
+		DivisionQueue.getInstance().reset();
+		ModelRatesHelper.getInstance().reset();
+		if(given != null)
+			ModelRatesHelper.getInstance().setMonitor(given);
+		monitor= ModelRatesHelper.getInstance().getMonitor();
+		OccupancyLattice.getInstance().reset(width, height);
+
+		RandomEngine engine= new MersenneTwister(seed);
+		SimulationContext simulation= new SimulationContext(null, null, null,
+				StepContext.newStreams(seed, rate, engine), seed, rate);
+		SimulationContext.setInstance(simulation);
+		StepContext.init(simulation);
+		MyContextBuilder.initPopulation(null, null, new Uniform(engine), width, height);
+		MyContextBuilder.initNutrients(null, width, height);
+		TickScheduler.getInstance().reset();
+		ModelRatesHelper.getInstance().update(0);
+		return 0;
+	}
+
+	/**
+	 * Loads the fork or the checkpoint, the monitor of the run takes over the
+	 * error accumulated before it
+	 *
+	 * @return the tick the run starts from
+	 */
+	private double resume() throws IOException {
+		double t0= (fork != null ? fork.branch() : Checkpoint.restore(restore));
+		ModelRatesHelper rates= ModelRatesHelper.getInstance();
+		if(given != null) {
+			given.resume(rates.getMonitor().getSum());
+			rates.setMonitor(given);
+		}
+		monitor= rates.getMonitor();
+		TickScheduler.getInstance().reset();
+		return t0;
+	}
+
+	/**
+	 * Reads the default values of a Repast parameters.xml file
+	 *
+	 * @param f		The file
+	 * @param types	Receives the declared parameter types by name, may be null
+	 * @return the parameter values by name
+	 */
+	public static Map<String, Object> loadParameters(File f, Map<String, String> types) throws IOException {
+		Map<String, Object> v= new HashMap<String, Object>();
+		try {
+			NodeList l= DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f).getElementsByTagName("parameter");
+			for(int i= 0; i< l.getLength(); i++) {
+				Element e= (Element) l.item(i);
+				if(types != null)
+					types.put(e.getAttribute("name"), e.getAttribute("type"));
+				v.put(e.getAttribute("name"), convert(e.getAttribute("type"), e.getAttribute("defaultValue")));
+			}
+		} catch(Exception e) {
+			throw new IOException("Cannot read the parameters file " + f, e);
+		}
+		return v;
+	}
+
+	/**
+	 * Converts a parameter value as the Repast string converters would
+	 *
+	 * @param type	The parameter type as declared on parameters.xml
+	 * @param s		The value
+	 * @return the value
+	 */
+	public static Object convert(String type, String s) {
+		if(s == null || NULL.equals(s)) return null;
+		if("int".equals(type)) return Integer.valueOf(s.trim());
+		if("double".equals(type)) return Double.valueOf(s.trim());
+		if("boolean".equals(type)) return Boolean.valueOf(s.trim());
+		if("long".equals(type)) return Long.valueOf(s.trim());
+		if("float".equals(type)) return Float.valueOf(s.trim());
+		return s;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Usage: HeadlessEngine parameters.xml output.txt|output.bcol [run=n] [restore=file] [checkpoint=file] [every=ticks] [compress=false] [name=value ...]");
+			System.exit(1);
+		}
+		long t0= System.currentTimeMillis();
+		Map<String, String> types= new HashMap<String, String>();
+		Map<String, Object> values= loadParameters(new File(args[0]), types);
+		int run= 1;
+		File restore= null;
+		File checkpoint= null;
+		int every= CHECKPOINT_INTERVAL;
+		boolean compressed= true;
+		for(int i= 2; i< args.length; i++) {
+			int k= args[i].indexOf('=');
+			if(k < 0) throw new IllegalArgumentException("Not a name=value pair: " + args[i]);
+			String name= args[i].substring(0, k);
+			String value= args[i].substring(k + 1);
+			if(RUN.equals(name))
+				run= Integer.parseInt(value);
+			else if(RESTORE.equals(name))
+				restore= new File(value);
+			else if(CHECKPOINT.equals(name))
+				checkpoint= new File(value);
+			else if(EVERY.equals(name))
+				every= Integer.parseInt(value);
+			else if(COMPRESS.equals(name))
+				compressed= Boolean.parseBoolean(value);
+			else if(types.containsKey(name))
+				values.put(name, convert(types.get(name), value));
+			else
+				throw new IllegalArgumentException("Unknown parameter: " + name);
+		}
+
+		File f= new File(args[1]);
+		HeadlessEngine engine= new HeadlessEngine(values);
+		engine.setRestore(restore);
+		engine.setCheckpoint(checkpoint, every);
+		if(isColumnar(f)) {
+			engine.setColumnar(f, compressed);
+			engine.run(null, run, false);
+		} else {
+			Writer out= new BufferedWriter(new FileWriter(f));
+			try {
+				engine.run(out, run, true);
+			} finally {
+				out.close();
+			}
+		}
+		System.out.println("Run " + run + " " + engine.getMonitor().getStatus());
+		System.out.println("Run " + run + " done in " + (System.currentTimeMillis() - t0) + " ms");
+	}
+}
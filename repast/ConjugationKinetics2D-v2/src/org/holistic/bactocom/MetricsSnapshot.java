@@ -0,0 +1,161 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+
+/**
+ * Per tick population metrics for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * An immutable copy of the MyPopulationBookkeeper counters (already scaled by
+ * N_SCALEFACTOR), taken once per tick by the TickScheduler after the agents have
+ * been stepped. The data sources and the auto-fit rule read from the snapshot,
+ * so every consumer on a tick sees the same values.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public final class MetricsSnapshot {
+	public final static MetricsSnapshot EMPTY= new MetricsSnapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+	private final double tick;
+	private final double N0;
+	private final double D;
+	private final double R;
+	private final double T;
+	private final double pD;		// Previous D count
+	private final double pR;		// Previous R count
+	private final double pT;		// Previous T count
+	private final double E;			// Number of D|T to R Encounters
+	private final double Ed;
+	private final double Et;
+	private final double Nc;		// Number of cells which have conjugated
+	private final double Cd;		// Conjugative transfers performed by Donor cells
+	private final double Ct;		// Conjugative transfers performed by Transconjugant cells
+	private final double experimental;	// The experimental T/(R+T) at this tick
+
+	private MetricsSnapshot(double tick, double N0, double D, double R, double T, double pD, double pR, double pT,
+			double E, double Ed, double Et, double Nc, double Cd, double Ct, double experimental) {
+		this.tick= tick;
+		this.N0= N0;
+		this.D= D;
+		this.R= R;
+		this.T= T;
+		this.pD= pD;
+		this.pR= pR;
+		this.pT= pT;
+		this.E= E;
+		this.Ed= Ed;
+		this.Et= Et;
+		this.Nc= Nc;
+		this.Cd= Cd;
+		this.Ct= Ct;
+		this.experimental= experimental;
+	}
+
+	/**
+	 * Copies the bookkeeper counters
+	 *
+	 * @param tick		The current tick
+	 * @param previous	The snapshot of the previous tick
+	 * @param ff		The experimental curve, may be null
+	 * @return the snapshot
+	 */
+	public static MetricsSnapshot take(double tick, MetricsSnapshot previous, FitnessFunction ff) {
+		MyPopulationBookkeeper b= MyPopulationBookkeeper.getInstance();
+		return new MetricsSnapshot(tick, b.getN0(), b.getD(), b.getR(), b.getT(),
+				previous.D, previous.R, previous.T,
+				b.getE(), b.getEd(), b.getEt(), b.getNc(), b.getCd(), b.getCt(),
+				(ff != null ? ff.getValue(tick) : 0));
+	}
+
+	/**
+	 * Writes the snapshot to a checkpoint
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		double[] v= { tick, N0, D, R, T, pD, pR, pT, E, Ed, Et, Nc, Cd, Ct, experimental };
+		out.putDoubles(v, 0, v.length);
+	}
+
+	/**
+	 * Reads a snapshot written by save()
+	 */
+	static MetricsSnapshot restore(Checkpoint.Input in) {
+		double[] v= new double[15];
+		in.getDoubles(v, 0, v.length);
+		return new MetricsSnapshot(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11], v[12], v[13], v[14]);
+	}
+
+	public double getTick() {
+		return tick;
+	}
+
+	public double getN0() {
+		return N0;
+	}
+
+	public double getD() {
+		return D;
+	}
+
+	public double getR() {
+		return R;
+	}
+
+	public double getT() {
+		return T;
+	}
+
+	public double getAll() {
+		return D + R + T;
+	}
+
+	public double getPreviousD() {
+		return pD;
+	}
+
+	public double getPreviousR() {
+		return pR;
+	}
+
+	public double getPreviousT() {
+		return pT;
+	}
+
+	public double getE() {
+		return E;
+	}
+
+	public double getEd() {
+		return Ed;
+	}
+
+	public double getEt() {
+		return Et;
+	}
+
+	public double getNc() {
+		return Nc;
+	}
+
+	public double getCd() {
+		return Cd;
+	}
+
+	public double getCt() {
+		return Ct;
+	}
+
+	public double getExperimental() {
+		return experimental;
+	}
+
+	/**
+	 * @return the relative error of the simulated T/(R+T) against the experimental curve
+	 */
+	public double getFitnessError() {
+		double input= (experimental > 0 ? experimental : 0.0000000001);
+		double output= T/(R+T);
+		return (input - output)/input;
+	}
+}
@@ -1,36 +1,19 @@
 package org.holistic.bactocom;
 
+import java.io.IOException;
+
 import repast.simphony.context.Context;
-import repast.simphony.engine.environment.RunEnvironment;
 
 @SuppressWarnings("rawtypes")
 public class ModelRatesHelper {
-	private double pN0= 0;
-	
-	private double D= 0;
-	private double R= 0;
-	private double T= 0;
-	
-	private double pD= 0;		// Previous D count
-	private double pR= 0;		// Previous R count
-	private double pT= 0;		// Previous T count
-	
 	private double Gr= 0;
 	
-	private double E= 0;
-	private double Ed= 0;
-	private double Et= 0;
-	private double Nc= 0;
-	private double Cd= 0;
-	private double Ct= 0;
-	
-	private double t= 0;
+	private volatile MetricsSnapshot snapshot= MetricsSnapshot.EMPTY;
 	private FitnessFunction ff= null; 
+	private DivergenceMonitor monitor= null;
 
 	
-	private final static ModelRatesHelper instance= new ModelRatesHelper();
-	
-	private ModelRatesHelper() {
+	ModelRatesHelper() {
 	}
 	
 	public void setFitnessFunction(String s) {
@@ -38,154 +21,174 @@ public class ModelRatesHelper {
 	}
 	
 	public double getGammaEndPointAll(Context context) {
+		MetricsSnapshot m= snapshot;
 		double psi= getGrowthRateAll(context);
-		double g= gammaEndPoint(psi,D+R+T, this.pN0,D,R,T);
+		double g= gammaEndPoint(psi,m.getD()+m.getR()+m.getT(), m.getN0(),m.getD(),m.getR(),m.getT());
 		return g;
 	}
 	
 	public double getGammaEndPointDonor(Context context) {
+		MetricsSnapshot m= snapshot;
 		double psi= getGrowthRateDonors(context);
-		double g= gammaEndPoint(psi,D+R+T, this.pN0,D,R,T);
+		double g= gammaEndPoint(psi,m.getD()+m.getR()+m.getT(), m.getN0(),m.getD(),m.getR(),m.getT());
 		return g;
 	}
 	
 	public double getGammaEndPointTransconjugant(Context context) {
+		MetricsSnapshot m= snapshot;
 		double psi= getGrowthRateTransconjugant(context);
-		double g= gammaEndPoint(psi,D+R+T, this.pN0,D,R,T);
+		double g= gammaEndPoint(psi,m.getD()+m.getR()+m.getT(), m.getN0(),m.getD(),m.getR(),m.getT());
 		return g;
 	}
 	
 	public double getDonorDensity(Context context) {
+		MetricsSnapshot m= snapshot;
 		Double v= 0D;
 		if(MyParameters.isOnlyOriT())
-			v= D/(R+D+T);
+			v= m.getD()/(m.getR()+m.getD()+m.getT());
 		else
-			v= (D+T)/(R+D+T);
+			v= (m.getD()+m.getT())/(m.getR()+m.getD()+m.getT());
 		return v;
 	}
 	
 	public double getGamma0() {
-		Double v= (Cd+Ct)/E;
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getCd()+m.getCt())/m.getE();
 		v= v >= 1 ? 0  : v;
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	public double getGamma0(Context context) {
-		Double v= (Cd + Ct)/E;
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getCd() + m.getCt())/m.getE();
 		v= v >= 1 ? 0  : v;
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getGamma0D(Context context) {
-		Double v= Cd/Ed;
+		MetricsSnapshot m= snapshot;
+		Double v= m.getCd()/m.getEd();
 		v= v >= 1 ? 0  : v;
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getGamma0T(Context context) {
-		Double v= Ct/Et;
+		MetricsSnapshot m= snapshot;
+		Double v= m.getCt()/m.getEt();
 		v= v >= 1 ? 0  : v;
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getGammaI() {
-		Double v= (Cd + Ct)/(D+T);
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getCd() + m.getCt())/(m.getD()+m.getT());
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	public double getGammaI(Context context) {
-		Double v= (Cd + Ct)/(D+T);
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getCd() + m.getCt())/(m.getD()+m.getT());
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getGammaID(Context context) {
-		Double v= Cd/(D+T);
+		MetricsSnapshot m= snapshot;
+		Double v= m.getCd()/(m.getD()+m.getT());
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getGammaIT(Context context) {
-		Double v= Ct/(D+T);
+		MetricsSnapshot m= snapshot;
+		Double v= m.getCt()/(m.getD()+m.getT());
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getRCv(Context context) {
-		Double v= (T - (Cd + Ct))/T; 
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getT() - (m.getCd() + m.getCt()))/m.getT(); 
 		return( (!Double.isNaN(v) ? v : 0) );
 	}
 	
 	public double getRCh(Context context) {
-		Double v= (Cd + Ct)/T;
+		MetricsSnapshot m= snapshot;
+		Double v= (m.getCd() + m.getCt())/m.getT();
 		return( (!Double.isNaN(v) ? v : 0) ); 
 	}
 	
 	public double getRCt(Context context) {
-		Double v= Ct/(Cd + Ct); 
+		MetricsSnapshot m= snapshot;
+		Double v= m.getCt()/(m.getCd() + m.getCt()); 
 		return( (!Double.isNaN(v) ? v : 0) );
 	}
 	
 	public double getFitnessError() {
-		double input= ff.getValue(t);
-		double output= T/(R+T);
-		input= (input > 0 ? input : 0.0000000001);
-		double error= (input - output)/input;
-		return error;
+		return snapshot.getFitnessError();
 	}
 	
 	public double getExperimentalTransconjugantPerRecipientCell(Context context) {
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return ff.getValue(t);
+		return snapshot.getExperimental();
 	}
 	
 	public double getTransconjugantPerRecipientCell(Context context) {
-		return T/(R+T);
+		MetricsSnapshot m= snapshot;
+		return m.getT()/(m.getR()+m.getT());
 	}
 	
 	public double getGrowthRateAll(Context context) {
-		double N0= this.pN0;
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGrowthRate(D+R+T, N0, t, 0);
+		return getGrowthRate(m.getD()+m.getR()+m.getT(), N0, m.getTick(), 0);
 	}
 	
 	public double getGrowthRateDonors(Context context) {
-		double N0= this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGrowthRate(D, N0, t, 0);
+		return getGrowthRate(m.getD(), N0, m.getTick(), 0);
 	}
 	
 	public double getGrowthRateRecipient(Context context) {
-		double N0= this.pN0 - this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() - m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGrowthRate(R, N0, t, 0);
+		return getGrowthRate(m.getR(), N0, m.getTick(), 0);
 	}
 	
 	public double getGrowthRateTransconjugant(Context context) {
-		double N0= this.pN0 - this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() - m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGrowthRate(T, N0, t, 0);
+		return getGrowthRate(m.getT(), N0, m.getTick(), 0);
 	}
 	
 	public double getGenerationTimeAll(Context context) {
-		double N0= this.pN0;
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGenerationTimes(D+R+T, N0, t, 0);
+		return getGenerationTimes(m.getD()+m.getR()+m.getT(), N0, m.getTick(), 0);
 	}
 	
 	public double getGenerationTimeDonors(Context context) {
-		double N0= this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return getGenerationTimes(D, N0, t, 0);
+		return getGenerationTimes(m.getD(), N0, m.getTick(), 0);
 	}
 	
 	public double getGenerationTimeRecipient(Context context) {
-		double N0= this.pN0 - this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() - m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		double v= getGenerationTimes(R, N0, t, 0);
-		Gr= (pR == R && R > 0) ? Gr : v;
+		double v= getGenerationTimes(m.getR(), N0, m.getTick(), 0);
+		Gr= (m.getPreviousR() == m.getR() && m.getR() > 0) ? Gr : v;
 		return Gr;
 	}
 	
 	public double getGenerationTimeTransconjugant(Context context) {
-		double N0= this.pN0 - this.pN0 * MyParameters.getInitialDonorDensity();
+		MetricsSnapshot m= snapshot;
+		double N0= m.getN0() - m.getN0() * MyParameters.getInitialDonorDensity();
 		//double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return (T == 0 || T <= N0 ? 0 : getGenerationTimes(T, N0, t, 0));
+		return (m.getT() == 0 || m.getT() <= N0 ? 0 : getGenerationTimes(m.getT(), N0, m.getTick(), 0));
 	}
 	
 	public double getGrowthRate(double N, double N0, double t, double t0) {
@@ -222,25 +225,67 @@ public class ModelRatesHelper {
 	}
 
 	public static ModelRatesHelper getInstance() {
-		return instance;
-	}
-	
-	public void gatherData() {
-		pD= D;
-		pR= R;
-		pT= T;
-		pN0= MyPopulationBookkeeper.getInstance().getN0();
-		D= MyPopulationBookkeeper.getInstance().getD();
-		R= MyPopulationBookkeeper.getInstance().getR();
-		T= MyPopulationBookkeeper.getInstance().getT();
-		E= MyPopulationBookkeeper.getInstance().getE();
-		Ed= MyPopulationBookkeeper.getInstance().getEd();
-		Et= MyPopulationBookkeeper.getInstance().getEt();
-		Nc= MyPopulationBookkeeper.getInstance().getNc();
-		Cd= MyPopulationBookkeeper.getInstance().getCd();
-		Ct= MyPopulationBookkeeper.getInstance().getCt();
-		
-		t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		return ModelRun.current().rates;
+	}
+	
+	/**
+	 * Reduces the population counters and takes the metrics snapshot for the
+	 * current tick, called once the agents have been stepped.
+	 * 
+	 * @param tick The current tick
+	 * @return true if the divergence monitor stops the run
+	 */
+	public boolean update(double tick) {
+		MyPopulationBookkeeper.getInstance().reduce();
+		snapshot= MetricsSnapshot.take(tick, snapshot, ff);
+		if(monitor != null && DivergenceMonitor.isSampled(tick))
+			return monitor.sample(snapshot);
+		return false;
+	}
+	
+	/**
+	 * Drops the metrics of the previous run, the run is monitored with the
+	 * abortTolerance parameter
+	 */
+	public void reset() {
+		snapshot= MetricsSnapshot.EMPTY;
+		Gr= 0;
+		monitor= new DivergenceMonitor(MyParameters.getAbortTolerance(), Double.MAX_VALUE, 1);
+	}
+	
+	public DivergenceMonitor getMonitor() {
+		return monitor;
+	}
+	
+	/**
+	 * Replaces the divergence monitor of the run, it can be shared by several runs
+	 */
+	public void setMonitor(DivergenceMonitor m) {
+		monitor= m;
+	}
+	
+	/**
+	 * Writes the snapshot and the fitting error so far to a checkpoint
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		snapshot.save(out);
+		out.putDouble(Gr);
+		out.putDouble(monitor != null ? monitor.getSum() : 0);
+	}
+	
+	/**
+	 * Reads the snapshot and the fitting error so far from a checkpoint
+	 */
+	void restore(Checkpoint.Input in) {
+		snapshot= MetricsSnapshot.restore(in);
+		Gr= in.getDouble();
+		double sum= in.getDouble();
+		if(monitor != null)
+			monitor.resume(sum);
+	}
+	
+	public MetricsSnapshot getSnapshot() {
+		return snapshot;
 	}
 
 }
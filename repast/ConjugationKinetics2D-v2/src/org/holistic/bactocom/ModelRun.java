@@ -0,0 +1,89 @@
+package org.holistic.bactocom;
+
+import java.util.Map;
+
+/**
+ * Per run model state for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Holds the instances behind the model singletons (agent store, lattice,
+ * nutrient field, division queue, scheduler, bookkeeper, rates helper, legacy
+ * parameter map, identifiers, serial step context and simulation context) and
+ * the run parameters. The getInstance() methods of those classes return the
+ * instance of the run bound to the calling thread, so several runs can live in
+ * the same JVM as long as each one is stepped from its own thread. Threads with
+ * no run bound (the Repast runtime) share a default run.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class ModelRun {
+	private final static ThreadLocal<ModelRun> CURRENT= new ThreadLocal<ModelRun>();
+
+	/**
+	 * The run of the threads with no run bound, created on first use
+	 */
+	private static class Default {
+		final static ModelRun RUN= new ModelRun(null);
+	}
+
+	final Map<String, Object> values;		// The run parameters, null to read the Repast ones
+	final BacteriumStore store= new BacteriumStore();
+	final OccupancyLattice lattice= new OccupancyLattice();
+	final NutrientField nutrients= new NutrientField();
+	final DivisionQueue queue= new DivisionQueue();
+	final TickScheduler scheduler= new TickScheduler();
+	final MyPopulationBookkeeper bookkeeper= new MyPopulationBookkeeper();
+	final ModelRatesHelper rates= new ModelRatesHelper();
+	final BacteriumParameters parameters= BacteriumParamtersFactory.newRunParameters();
+	final Genotype genotype= new Genotype();
+	final StepContext serial= StepContext.newSerialContext();
+	SimulationContext simulation= null;
+
+	/**
+	 * @param values The run parameters by name, null to read the Repast ones
+	 */
+	public ModelRun(Map<String, Object> values) {
+		this.values= values;
+	}
+
+	/**
+	 * @return the run bound to the calling thread, the default one if none
+	 */
+	public static ModelRun current() {
+		ModelRun r= CURRENT.get();
+		return (r == null ? Default.RUN : r);
+	}
+
+	/**
+	 * Binds this run to the calling thread
+	 *
+	 * @return the run bound before, to be handed to exit()
+	 */
+	public ModelRun enter() {
+		ModelRun previous= CURRENT.get();
+		CURRENT.set(this);
+		StepContext.bind(serial);
+		return previous;
+	}
+
+	/**
+	 * Restores the run bound to the calling thread before enter()
+	 *
+	 * @param previous The value returned by enter()
+	 */
+	public static void exit(ModelRun previous) {
+		if(previous == null) {
+			CURRENT.remove();
+			StepContext.bind(null);
+		} else {
+			CURRENT.set(previous);
+			StepContext.bind(previous.serial);
+		}
+	}
+
+	public Map<String, Object> getValues() {
+		return values;
+	}
+}
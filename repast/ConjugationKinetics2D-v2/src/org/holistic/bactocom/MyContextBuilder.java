@@ -1,7 +1,13 @@
 package org.holistic.bactocom;
 
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import cern.jet.random.Normal;
 import cern.jet.random.Poisson;
@@ -11,6 +17,7 @@ import repast.simphony.context.space.grid.GridFactory;
 import repast.simphony.context.space.grid.GridFactoryFinder;
 import repast.simphony.dataLoader.ContextBuilder;
 import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.environment.RunState;
 import repast.simphony.random.RandomHelper;
 import repast.simphony.space.grid.Grid;
 import repast.simphony.space.grid.GridBuilderParameters;
@@ -18,7 +25,6 @@ import repast.simphony.space.grid.GridPoint;
 import repast.simphony.space.grid.RandomGridAdder;
 import repast.simphony.space.grid.SimpleGridAdder;
 import repast.simphony.space.grid.WrapAroundBorders;
-import repast.simphony.valueLayer.GridValueLayer;
 
 /**
  * Repast context builder for model developed for FdlC group paper 
@@ -51,9 +57,23 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 		parameters= GridBuilderParameters.multiOccupancy2D(new RandomGridAdder(), new WrapAroundBorders(), width, height);	
 		grid= factory.createGrid(MyParameters.GRID, context, parameters);
 		
+		BacteriumStore.getInstance().reset();
+		Genotype.reset();
+		DivisionQueue.getInstance().reset();
+		ModelRatesHelper.getInstance().reset();
+		OccupancyLattice.getInstance().reset(width, height);
+		
 		initRandomStreams();
-		initPopulation(context, grid);
-		initNutrients(context);
+		SimulationContext simulation= new SimulationContext(context, grid, RunEnvironment.getInstance().getCurrentSchedule(),
+				StepContext.newSerialStreams(MyParameters.getRandomSeed(), MyParameters.getIntrinsicConjugationRate()),
+				MyParameters.getRandomSeed(), MyParameters.getIntrinsicConjugationRate());
+		SimulationContext.setInstance(simulation);
+		StepContext.init(simulation);
+		initPopulation(context, grid, RandomHelper.getUniform(), width, height);
+		initNutrients(context, width, height);
+		TickScheduler.getInstance().init();
+		ModelRatesHelper.getInstance().update(0);
+		initOutput(context);
 				
 		grid.setAdder(new SimpleGridAdder<Object>());
 		return context;
@@ -66,14 +86,33 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 	private void configSimulation() {
 		System.out.println("Initializing/Configuring Simulation (time= " + ( new Date()).toString() + ")" );
 		if(RunEnvironment.getInstance().isBatch()){
-			double endAt= 10 * 60;	// 10 hours of simulation
+			double endAt= MyParameters.END_AT;
 			RunEnvironment.getInstance().endAt(endAt);
 		} else {
-			double endAt= 10 * 60;	// 10 hours of simulation
+			double endAt= MyParameters.END_AT;
 			RunEnvironment.getInstance().endAt(endAt);
 		}
 	}
 	
+	/**
+	 * Schedules the DS::All rows output, to output/ModelOutput.<time>.<run>.<format>
+	 * as tabular text or through a ColumnarSink
+	 */
+	private void initOutput(Context<Object> context) {
+		int run= RunState.getInstance().getRunInfo().getRunNumber();
+		String format= MyParameters.getOutputFormat();
+		File f= new File("output", "ModelOutput." + System.currentTimeMillis() + "." + run + "." + format);
+		try {
+			f.getParentFile().mkdirs();
+			if(MyParameters.FORMAT_COLUMNAR.equals(format))
+				new ColumnarSink(f, true, ColumnarSink.getRunHeader(run)).schedule(context);
+			else
+				new TextSink(new BufferedWriter(new FileWriter(f)), run, true).schedule(context);
+		} catch(IOException e) {
+			throw new IllegalStateException("Cannot write " + f, e);
+		}
+	}
+	
 	/**
 	 * Random Number generators initializer
 	 */
@@ -90,9 +129,15 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 	/**
 	 * Creates the initial population of D and R cells 
 	 * and distribute it randomly across the grid.
+	 * 
+	 * @param context	The Repast context, null when running headless
+	 * @param grid		The Repast grid, null when running headless
+	 * @param u			The uniform source for the cell placement
+	 * @param width		The lattice width
+	 * @param height	The lattice height
 	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void initPopulation(Context<Object> context, Grid grid) {
+	static void initPopulation(Context<Object> context, Grid grid, Uniform u, int width, int height) {
 		MyPopulationBookkeeper.getInstance().reset();
 		// Population initialization
 		//int N= MyParameters.getN0();
@@ -105,25 +150,26 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 		
 		MyPopulationBookkeeper.getInstance().setN0(N);
 		
-		// Create the bacteria parameter collection 
-		BacteriumParameters p= BacteriumParamtersFactory.getParameters();
-		p.setValue(BacteriumParameters.GAMMA, MyParameters.getIntrinsicConjugationRate());
-		p.setValue(BacteriumParameters.Gr, MyParameters.getGr());
-		p.setValue(BacteriumParameters.Gd, MyParameters.getGd());
-		p.setValue(BacteriumParameters.Gt, MyParameters.getGt());
-		p.setValue(BacteriumParameters.isOnlyOriT, MyParameters.isOnlyOriT());
-		p.setValue(BacteriumParameters.EQUATION, MyParameters.getEquation());
+		// Create the bacteria parameter collection, shared by every cell of the run
+		BacteriumParameters p= BacteriumParamtersFactory.newParameters(MyParameters.getIntrinsicConjugationRate(),
+				MyParameters.getGr(), MyParameters.getGd(), MyParameters.getGt(),
+				MyParameters.isOnlyOriT(), MyParameters.getEquation());
 		
 		// Experimental curve initialization
 		ModelRatesHelper.getInstance().setFitnessFunction(MyParameters.getEquation());
 
 		
+		List<Bacterium> cells= new ArrayList<Bacterium>(N);
 		for (int i = 0; i < donors ; i++) {
-			context.add(new Bacterium(State.D, p));
+			cells.add(new Bacterium(State.D, p));
 		}
 				
 		for (int i = 0; i < recipient ; i++) {
-			context.add(new Bacterium(State.R, p));
+			cells.add(new Bacterium(State.R, p));
+		}
+		if(context != null) {
+			for(Bacterium b : cells)
+				context.add(b);
 		}
 				
 		double xx= 0;
@@ -133,10 +179,10 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 		//double rc= Math.sqrt(N) * 6;
 		double rc= Math.sqrt( (N * mS)/Math.PI );
 		GridPoint pt= null;
-		for ( Object obj : context ) {
+		for ( Bacterium obj : cells ) {
 			do { 
-				double a= 2 * Math.PI * RandomHelper.getUniform().nextDouble();
-				double r= Math.sqrt(RandomHelper.getUniform().nextDouble());
+				double a= 2 * Math.PI * u.nextDouble();
+				double r= Math.sqrt(u.nextDouble());
 				int x= (int) ((int) ( rc * r) * Math.cos(a) + width/2);
 				int y= (int) ((int) ( rc * r) * Math.sin(a) + height/2);
 				
@@ -146,7 +192,8 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 				my= Math.min(my, y);
 				
 				pt= new GridPoint(x, y);
-			} while(!grid.moveTo(obj , (int)pt.getX(), (int )pt.getY()));
+			} while(grid != null && !grid.moveTo(obj , (int)pt.getX(), (int )pt.getY()));
+			OccupancyLattice.getInstance().add(obj, pt.getX(), pt.getY());
 		}
 		Double S= Math.PI * Math.pow(rc, 2);
 		
@@ -154,17 +201,15 @@ public class MyContextBuilder implements ContextBuilder<Object> {
 	}
 	
 	/**
-	 * This method initialize the nutrient on the grid value layer  
+	 * This method initialize the nutrient field and exposes it as a value layer  
 	 * 
 	 */
-	private void initNutrients(Context<Object> context) {
-		GridValueLayer vl = new GridValueLayer(MyParameters.VL_NUTRIENTS, true,new WrapAroundBorders(),width,height);
-		context.addValueLayer(vl);
-		double nutrient= MyParameters.getNutrient();
-		for(int x= 0; x< width; x++) 
-			for(int y= 0; y< height; y++)
-				vl.set(nutrient,x,y);
-		
+	static void initNutrients(Context<Object> context, int width, int height) {
+		NutrientField field= NutrientField.getInstance();
+		field.reset(width, height);
+		field.fill(MyParameters.getNutrient());
+		if(context != null)
+			context.addValueLayer(new NutrientValueLayer(field));
 	}
 
 }
@@ -5,13 +5,8 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
-import cern.jet.random.Uniform;
-import repast.simphony.context.Context;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.grid.Grid;
 import repast.simphony.space.grid.GridPoint;
-import repast.simphony.util.ContextUtils;
-import repast.simphony.util.SimUtilities;
 
 /**
  * Simple Moore's neighborhood for model developed for FdlC group paper 
@@ -22,6 +17,146 @@ import repast.simphony.util.SimUtilities;
  *
  */
 public class MyNeighborhood {
+	public final static int MAX_SIZE= 4;				// Largest neighborhood radius with precomputed offsets
+	
+	// Precomputed Moore offsets indexed by [size][center ? 1 : 0]
+	private final static int[][][] OX= new int[MAX_SIZE + 1][2][];
+	private final static int[][][] OY= new int[MAX_SIZE + 1][2][];
+	static {
+		for(int size= 1; size<= MAX_SIZE; size++) {
+			for(int c= 0; c<= 1; c++) {
+				int n= (2 * size + 1) * (2 * size + 1) - (c == 1 ? 0 : 1);
+				OX[size][c]= new int[n];
+				OY[size][c]= new int[n];
+				int i= 0;
+				for(int x= -size; x<= size; x++) {
+					for(int y= size; y >= -size; y--) {
+						if(c == 0 && x == 0 && y == 0) continue;
+						OX[size][c][i]= x;
+						OY[size][c][i]= y;
+						i++;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return a random index in the range [0, n), drawn from the current step context
+	 */
+	public static int nextIndex(int n) {
+		return StepContext.current().nextIndex(n);
+	}
+	
+	/**
+	 * @return the x offsets of the Moore neighborhood of the given size
+	 */
+	public static int[] getOffsetsX(int size, boolean c) {
+		return OX[size][c ? 1 : 0];
+	}
+	
+	/**
+	 * @return the y offsets of the Moore neighborhood of the given size
+	 */
+	public static int[] getOffsetsY(int size, boolean c) {
+		return OY[size][c ? 1 : 0];
+	}
+	
+	/**
+	 * Allocates a site buffer large enough for any neighborhood up to size
+	 * 
+	 * @param size The neighborhood radius
+	 * @return the buffer
+	 */
+	public static int[] newBuffer(int size) {
+		return new int[(2 * size + 1) * (2 * size + 1)];
+	}
+	
+	/**
+	 * Writes the lattice sites of the Moore neighborhood into the buffer in random order.
+	 * Nothing is allocated, the buffer should come from newBuffer.
+	 * 
+	 * @param site 		The central site
+	 * @param size		The neighborhood radius
+	 * @param c			Whether the central site is included
+	 * @param buffer	The output buffer
+	 * @return the number of sites written
+	 */
+	public static int getMooreSites(int site, int size, boolean c, int[] buffer) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		int[] ox= getOffsetsX(size, c);
+		int[] oy= getOffsetsY(size, c);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
+		for(int i= 0; i< ox.length; i++) {
+			buffer[i]= lattice.site(x + ox[i], y + oy[i]);
+		}
+		shuffle(buffer, ox.length);
+		return ox.length;
+	}
+	
+	/**
+	 * Writes the unoccupied lattice sites of the Moore neighborhood into the buffer in random order.
+	 * 
+	 * @param site 		The central site
+	 * @param size		The neighborhood radius
+	 * @param buffer	The output buffer
+	 * @return the number of empty sites written
+	 */
+	public static int getEmptyMooreSites(int site, int size, int[] buffer) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		int[] ox= getOffsetsX(size, false);
+		int[] oy= getOffsetsY(size, false);
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
+		int n= 0;
+		for(int i= 0; i< ox.length; i++) {
+			int p= lattice.site(x + ox[i], y + oy[i]);
+			if(lattice.isEmpty(p))
+				buffer[n++]= p;
+		}
+		shuffle(buffer, n);
+		return n;
+	}
+	
+	/**
+	 * Picks a single random site of the Moore neighborhood
+	 * 
+	 * @param site 		The central site
+	 * @param size		The neighborhood radius
+	 * @param c			Whether the central site is included
+	 * @return the chosen site
+	 */
+	public static int getRandomMooreSite(int site, int size, boolean c) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		int[] ox= getOffsetsX(size, c);
+		int[] oy= getOffsetsY(size, c);
+		int i= nextIndex(ox.length);
+		return lattice.site(lattice.getX(site) + ox[i], lattice.getY(site) + oy[i]);
+	}
+	
+	/**
+	 * In place Fisher-Yates permutation of the first n buffer elements
+	 */
+	public static void shuffle(int[] buffer, int n) {
+		StepContext c= StepContext.current();
+		for(int i= n - 1; i > 0; i--) {
+			int j= c.nextIndex(i + 1);
+			int v= buffer[i];
+			buffer[i]= buffer[j];
+			buffer[j]= v;
+		}
+	}
+
+	/**
+	 * In place Fisher-Yates permutation of a list, drawn from the neighborhood
+	 * stream of the current step context as the site buffers are
+	 */
+	public static <T> void shuffle(List<T> list) {
+		StepContext c= StepContext.current();
+		for(int i= list.size() - 1; i > 0; i--)
+			Collections.swap(list, i, c.nextIndex(i + 1));
+	}
 
 	public static List<GridPoint> getMooreNeighborhood(GridPoint pt, int size, boolean c) {
 		List<GridPoint> neighbors = new ArrayList<GridPoint>();
@@ -31,16 +166,12 @@ public class MyNeighborhood {
 				neighbors.add(new GridPoint(pt.getX() + x,pt.getY() + y));
             }
 		}
-		Collections.shuffle(neighbors);
+		shuffle(neighbors);
 		return neighbors;
 	}
 	
-	@SuppressWarnings("rawtypes")
 	public static List<GridPoint> getMooreNeighborhood(Object o, int size, boolean c) {
-		Context context = ContextUtils.getContext(o);
-		Grid grid = (Grid)context.getProjection("Grid");
-		GridPoint pt = grid.getLocation(o);
-		return getMooreNeighborhood(pt, size, c);
+		return getMooreNeighborhood(getLocation(o), size, c);
 	}
 	
 	public static List<GridPoint> getMooreNeighborhood(Object o, GridPoint pt, int size) {
@@ -52,26 +183,24 @@ public class MyNeighborhood {
             }
 		}
         
-		Collections.shuffle(sites);
+		shuffle(sites);
 		return sites;
 	}
 	
 		
-	@SuppressWarnings("rawtypes")
 	public static List<GridPoint> getEmptyMooreNeighborhood(Object o, GridPoint pt, int size) {
 		List<GridPoint> emptySites = new ArrayList<GridPoint>();
-		Context context = ContextUtils.getContext(o);
-		Grid grid = (Grid)context.getProjection("Grid");
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
 		
 		for(int x= -size; x<= size; x++) {
 			for(int y= size; y >= -size; y--) {
 				if(x == 0 && y == 0) continue;
-            	if(!grid.getObjectsAt(pt.getX() + x,pt.getY() + y).iterator().hasNext())	
+            	if(lattice.isEmpty(lattice.site(pt.getX() + x,pt.getY() + y)))	
             		emptySites.add(new GridPoint(pt.getX() + x,pt.getY() + y));
             }
 		}
         
-		Collections.shuffle(emptySites);
+		shuffle(emptySites);
 		return emptySites;
 	}
 	
@@ -81,24 +210,20 @@ public class MyNeighborhood {
 	 * 
 	 * @return the list of adjacent sites.
 	 */
-	@SuppressWarnings("rawtypes")
 	public static List<GridPoint> getEmptyMooreNeighborhood(Object o, int size) {
-		List<GridPoint> emptySites = new ArrayList<GridPoint>();
-		Context context = ContextUtils.getContext(o);
-		Grid grid = (Grid)context.getProjection("Grid");
-		GridPoint pt = grid.getLocation(o);
-
-		for(int x= -size; x<= size; x++) {
-			for(int y= size; y >= -size; y--) {
-				if(x == 0 && y == 0) continue;
-            	if(!grid.getObjectsAt(pt.getX() + x,pt.getY() + y).iterator().hasNext())	
-            		emptySites.add(new GridPoint(pt.getX() + x,pt.getY() + y));
-            }
-		}
-        
-		Collections.shuffle(emptySites);
-		
-		return emptySites;
+		return getEmptyMooreNeighborhood(o, getLocation(o), size);
+	}
+	
+	/**
+	 * Gets the agent location from the occupancy lattice
+	 * 
+	 * @param o The agent
+	 * @return The agent location
+	 */
+	public static GridPoint getLocation(Object o) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		int site= lattice.getSite((Bacterium) o);
+		return new GridPoint(lattice.getX(site), lattice.getY(site));
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -107,14 +232,13 @@ public class MyNeighborhood {
 		while(i.hasNext()) {
 			individuals.add(i.next());
 		}
-		SimUtilities.shuffle(individuals, (Uniform) RandomHelper.getDistribution(MyParameters.RANDOM_NEIGHBORHOOD));
+		shuffle(individuals);
 		return(individuals);
 	}
 	
 	@SuppressWarnings("rawtypes")
 	public static double[] getUnitVector(Object o, GridPoint pt, GridPoint other) {
-		Context context = ContextUtils.getContext(o);
-		Grid grid = (Grid) context.getProjection("Grid");
+		Grid grid = SimulationContext.getInstance().getGrid();
 		
 		double d= grid.getDistance(pt, other);
 		double[] vector = new double[pt.dimensionCount()];
@@ -1,10 +1,12 @@
 package org.holistic.bactocom;
 
+import java.util.Map;
+
 import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.parameter.Parameters;
 
 public class MyParameters {
 	public final static int N_SCALEFACTOR= 100;				// Super-individual scale-factor.
+	public final static double END_AT= 10 * 60;				// 10 hours of simulation
 	
 	public static String CONTEXT= "ConjugationKinetics2D-v2";
 	public static String GRID= "Grid";
@@ -29,6 +31,16 @@ public class MyParameters {
 	public static String PN_EQUATION= "equation";				// The experimental equation
 	public static String PN_PLASMID= "pName";					// The plasmid name 
 	public static String PN_AUTOFIT= "fitAuto";					// The plasmid name
+	public static String PN_ABORT_TOLERANCE= "abortTolerance";	// Fitting error that stops a run, 0 never stops
+	public static String PN_APPROXIMATE_ENCOUNTERS= "approximateEncounters";	// Fixed memory (Bloom filter) encounter accounting
+	public static String PN_FUSED_TICK= "fusedTick";			// Run all the step phases of an agent in a single pass
+	public static String PN_TILE_SIZE= "tileSize";				// Tile parallel stepping tile size, 0 steps serially
+	public static String PN_COUNTER_RNG= "counterRng";			// Counter based (Philox) random streams keyed by agent step
+	public static String PN_BUFFERED_RNG= "bufferedRng";		// Block sampled Ziggurat normal and tabulated Poisson streams
+	public static String PN_OUTPUT_FORMAT= "outputFormat";		// The DS::All rows output, one of the FORMAT_ values
+	
+	public final static String FORMAT_TEXT= "txt";				// Tabular text, see TextSink
+	public final static String FORMAT_COLUMNAR= "bcol";			// Binary columns, see ColumnarSink
 	
 	
 	
@@ -39,58 +51,63 @@ public class MyParameters {
 	public static double SI_FEMTOGRAMS= 1.00e-018; 
 	
 	
-	private final static Parameters parm;
-	static {
-		parm = RunEnvironment.getInstance().getParameters();
+	/**
+	 * Reads a parameter of the current run, from the Repast run parameters
+	 * unless the run was given its own values (see ModelRun)
+	 */
+	private static Object getValue(String k) {
+		Map<String, Object> values= ModelRun.current().getValues();
+		if(values != null) return values.get(k);
+		return RunEnvironment.getInstance().getParameters().getValue(k);
 	}
 	
 	/**
 	 * @return the simulation random seed
 	 */
 	public static int getRandomSeed() {
-		return (Integer) parm.getValue(PN_RANDOM_SEED);
+		return (Integer) getValue(PN_RANDOM_SEED);
 	}
 	
 	/**
 	 * @return Intrinsic conjugation rate, Gamma(intrinsic)
 	 */
 	public static double getIntrinsicConjugationRate() {
-		return (Double) parm.getValue(PN_INTRINSIC);
+		return (Double) getValue(PN_INTRINSIC);
 	}
 	
 	/**
 	 * @return Recipient Generation time, G(R)
 	 */
 	public static int getGr() {
-		return (Integer) parm.getValue(PN_GR);
+		return (Integer) getValue(PN_GR);
 	}
 	
 	/**
 	 * @return Donor Generation time, G(D)
 	 */
 	public static int getGd() {
-		return (Integer) parm.getValue(PN_GD);
+		return (Integer) getValue(PN_GD);
 	}
 
 	/**
 	 * @return Transconjugant Generation time, G(T)
 	 */
 	public static int getGt() {
-		return (Integer) parm.getValue(PN_GT);
+		return (Integer) getValue(PN_GT);
 	}
 	
 	/**
 	 * @return true whether plasmid is a MOB one.
 	 */
 	public static boolean isOnlyOriT() {
-		return (Boolean) parm.getValue(PN_ORIT);
+		return (Boolean) getValue(PN_ORIT);
 	}
 	
 	/**
 	 * @return The equation fitted to experimental data
 	 */
 	public static String getEquation() {
-		return (String) parm.getValue(PN_EQUATION);
+		return (String) getValue(PN_EQUATION);
 	}
 	
 	/**
@@ -111,7 +128,7 @@ public class MyParameters {
 	 * @return Initial donor density
 	 */
 	public static double getInitialDonorDensity() {
-		return (Double) parm.getValue(PN_DENSITY_D)/100D;
+		return (Double) getValue(PN_DENSITY_D)/100D;
 	}
 	
 	public static int getNutrient() {
@@ -128,15 +145,82 @@ public class MyParameters {
 	}*/
 	
 	public static String getM0() {
-		return (String) parm.getValue(PN_DENSITY_T0);
+		return (String) getValue(PN_DENSITY_T0);
 	}
 	
 	public static String getPlasmidName() {
-		return (String) parm.getValue(PN_PLASMID);
+		return (String) getValue(PN_PLASMID);
 	}
 	
 	public static boolean isAutoFit() {
-		return (Boolean) parm.getValue(PN_AUTOFIT);
+		return (Boolean) getValue(PN_AUTOFIT);
+	}
+	
+	/**
+	 * @return the fitting error a run is stopped at, 0 if runs are never stopped
+	 */
+	public static double getAbortTolerance() {
+		Object v= getValue(PN_ABORT_TOLERANCE);
+		return (v != null ? (Double) v : 0);
+	}
+	
+	/**
+	 * @return true to record the met cells in fixed memory Bloom filters, false if not set
+	 */
+	public static boolean isApproximateEncounters() {
+		Object v= getValue(PN_APPROXIMATE_ENCOUNTERS);
+		return (v != null && (Boolean) v);
+	}
+	
+	/**
+	 * @return true to run all the step phases of an agent in a single pass, false if not set
+	 */
+	public static boolean isFusedTick() {
+		Object v= getValue(PN_FUSED_TICK);
+		return (v != null && (Boolean) v);
+	}
+	
+	/**
+	 * @return the tile size of the tile parallel stepping, 0 (the default) steps serially
+	 */
+	public static int getTileSize() {
+		Object v= getValue(PN_TILE_SIZE);
+		return (v != null ? (Integer) v : 0);
+	}
+	
+	/**
+	 * @return true to draw from counter based (Philox) random streams, false if not set
+	 */
+	public static boolean isCounterRng() {
+		Object v= getValue(PN_COUNTER_RNG);
+		return (v != null && (Boolean) v);
+	}
+	
+	/**
+	 * @return true to draw from block sampled (Ziggurat and tabulated Poisson) streams, false if not set
+	 */
+	public static boolean isBufferedRng() {
+		Object v= getValue(PN_BUFFERED_RNG);
+		return (v != null && (Boolean) v);
+	}
+	
+	/**
+	 * @return the format of the DS::All rows output, FORMAT_TEXT if not set
+	 */
+	public static String getOutputFormat() {
+		return toOutputFormat(getValue(PN_OUTPUT_FORMAT));
+	}
+	
+	/**
+	 * Checks an output format parameter value
+	 * 
+	 * @param v The value, null for the default
+	 * @return FORMAT_TEXT or FORMAT_COLUMNAR
+	 */
+	static String toOutputFormat(Object v) {
+		if(v == null || FORMAT_TEXT.equals(v)) return FORMAT_TEXT;
+		if(FORMAT_COLUMNAR.equals(v)) return FORMAT_COLUMNAR;
+		throw new IllegalArgumentException("Unknown output format: " + v);
 	}
 	
 	/**
@@ -144,6 +228,6 @@ public class MyParameters {
 	 * @return
 	 */
 	//public static double getInitialLatticeOcupation() {
-	//	return (Double) parm.getValue(PN_DENSITY_T0)/100D;
+	//	return (Double) getValue(PN_DENSITY_T0)/100D;
 	//}
 }
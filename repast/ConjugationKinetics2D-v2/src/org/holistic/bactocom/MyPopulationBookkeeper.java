@@ -1,87 +1,132 @@
 package org.holistic.bactocom;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.holistic.bactocom.State;
 
+/**
+ * Population counters. Every thread updates its own stripe of the counters,
+ * the stripes are folded into the totals by reduce(), which is called at the
+ * end of the tick once the workers are idle. The getters return the totals
+ * as of the last reduction.
+ */
 public class MyPopulationBookkeeper {
-	private AtomicInteger N0;
-	private AtomicInteger D;
-	private AtomicInteger R;
-	private AtomicInteger T;
-	private AtomicInteger E;		// Number of D|T to R Encounters
-	private AtomicInteger Ed;		// Number of D|T to R Encounters
-	private AtomicInteger Et;		// Number of D|T to R Encounters
-	private AtomicInteger Nc;		// Number of cells which have conjugated
-	private AtomicInteger Cd;		// Conjugative transfers performed by Donor cells
-	private AtomicInteger Ct;		// Conjugative transfers performed by Transconjugant cells
-	
-	private static MyPopulationBookkeeper instance= new MyPopulationBookkeeper();
-	
-	
-	private MyPopulationBookkeeper() {
-		N0= new AtomicInteger(0);
-		D= new AtomicInteger(0);
-		R= new AtomicInteger(0);
-		T= new AtomicInteger(0);
-		E= new AtomicInteger(0);
-		Ed= new AtomicInteger(0);
-		Et= new AtomicInteger(0);
-		Nc= new AtomicInteger(0);
-		Cd= new AtomicInteger(0);
-		Ct= new AtomicInteger(0);
+	private final static int D= 0;
+	private final static int R= 1;
+	private final static int T= 2;
+	private final static int E= 3;		// Number of D|T to R Encounters
+	private final static int Ed= 4;		// Number of D|T to R Encounters
+	private final static int Et= 5;		// Number of D|T to R Encounters
+	private final static int Nc= 6;		// Number of cells which have conjugated
+	private final static int Cd= 7;		// Conjugative transfers performed by Donor cells
+	private final static int Ct= 8;		// Conjugative transfers performed by Transconjugant cells
+	private final static int COUNTERS= 9;
+	private final static int PAD= 16;	// A cache line of ints on each side of a stripe
+	
+	private int N0;
+	private final int[] totals= new int[COUNTERS];
+	private final List<int[]> stripes= new ArrayList<int[]>();
+	private final ThreadLocal<int[]> stripe= new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			int[] v= new int[PAD + COUNTERS + PAD];
+			synchronized(stripes) {
+				stripes.add(v);
+			}
+			return v;
+		}
+	};
+	
+	
+	
+	MyPopulationBookkeeper() {
+		N0= 0;
 	}
 
 	public static MyPopulationBookkeeper getInstance() {
-		return instance;
+		return ModelRun.current().bookkeeper;
 	}
 	
 	public void reset() {
-		D.set(0);
-		R.set(0);
-		T.set(0);
-		E.set(0);
-		Ed.set(0);
-		Et.set(0);
-		Nc.set(0);
-		Cd.set(0);
-		Ct.set(0);
+		synchronized(stripes) {
+			for(int[] v : stripes)
+				for(int k= 0; k< COUNTERS; k++) v[PAD + k]= 0;
+		}
+		for(int k= 0; k< COUNTERS; k++) totals[k]= 0;
+	}
+	
+	/**
+	 * Folds the stripes into the totals. It must not run while other threads
+	 * are updating the counters.
+	 */
+	public void reduce() {
+		synchronized(stripes) {
+			for(int[] v : stripes) {
+				for(int k= 0; k< COUNTERS; k++) {
+					totals[k]+= v[PAD + k];
+					v[PAD + k]= 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the counters to a checkpoint, they must have been reduced
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		out.putInt(N0);
+		out.putInts(totals, 0, COUNTERS);
+	}
+	
+	/**
+	 * Reads the counters from a checkpoint
+	 */
+	void restore(Checkpoint.Input in) {
+		reset();
+		N0= in.getInt();
+		in.getInts(totals, 0, COUNTERS);
+	}
+	
+	private void add(int k, int v) {
+		stripe.get()[PAD + k]+= v;
 	}
 	
 	public double getD() {
-		return (double) D.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[D] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementD() {
-		D.incrementAndGet();
+		add(D, 1);
 	}
 	
 	public void decrementD() {
-		D.decrementAndGet();
+		add(D, -1);
 	}
 
 	public double getR() {
-		return (double) R.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[R] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementR() {
-		R.incrementAndGet();
+		add(R, 1);
 	}
 	
 	public void decrementR() {
-		R.decrementAndGet();
+		add(R, -1);
 	}
 
 	public double getT() {
-		return (double) T.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[T] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementT() {
-		T.incrementAndGet();
+		add(T, 1);
 	}
 	
 	public void decrementT() {
-		T.decrementAndGet();
+		add(T, -1);
 	}
 	
 	public double getAll() {
@@ -89,83 +134,83 @@ public class MyPopulationBookkeeper {
 	}
 
 	public void setN0(int v) {
-		N0.set(v);
+		N0= v;
 	}
 	
 	public double getN0() {
-		return N0.get() * MyParameters.N_SCALEFACTOR;
+		return N0 * MyParameters.N_SCALEFACTOR;
 	}
 	
 	public double getCd() {
-		return (double) Cd.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[Cd] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementCd() {
-		Cd.incrementAndGet();
+		add(Cd, 1);
 	}
 	
 	public void decrementCd() {
-		Cd.decrementAndGet();
+		add(Cd, -1);
 	}
 	
 	public double getCt() {
-		return (double) Ct.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[Ct] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementCt() {
-		Ct.incrementAndGet();
+		add(Ct, 1);
 	}
 	
 	public void decrementCt() {
-		Ct.decrementAndGet();
+		add(Ct, -1);
 	}
 	
 	public double getNc() {
-		return (double) Nc.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[Nc] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementNc() {
-		Nc.incrementAndGet();
+		add(Nc, 1);
 	}
 	
 	public void decrementNc() {
-		Nc.decrementAndGet();
+		add(Nc, -1);
 	}
 	
 	public double getE() {
-		return (double) E.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[E] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementE() {
-		E.incrementAndGet();
+		add(E, 1);
 	}
 	
 	public void decrementE() {
-		E.decrementAndGet();
+		add(E, -1);
 	}
 	
 	public double getEd() {
-		return (double) Ed.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[Ed] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementEd() {
-		Ed.incrementAndGet();
+		add(Ed, 1);
 	}
 	
 	public void decrementEd() {
-		Ed.decrementAndGet();
+		add(Ed, -1);
 	}
 	
 	public double getEt() {
-		return (double) Et.get() * MyParameters.N_SCALEFACTOR;
+		return (double) totals[Et] * MyParameters.N_SCALEFACTOR;
 	}
 
 	public void incrementEt() {
-		Et.incrementAndGet();
+		add(Et, 1);
 	}
 	
 	public void decrementEt() {
-		Et.decrementAndGet();
+		add(Et, -1);
 	}
 	
 	/**
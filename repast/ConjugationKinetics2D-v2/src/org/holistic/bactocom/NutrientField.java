@@ -0,0 +1,131 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Primitive nutrient field for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The nutrient concentration is kept in a flat double array indexed by the same
+ * site numbering as the OccupancyLattice (site= y * width + x). The Repast display
+ * reaches it through the NutrientValueLayer adapter.
+ * Raising the concentration of a site wakes up the starved cells within the
+ * diffusion reach of that site.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class NutrientField {
+	private int width= 0;
+	private int height= 0;
+	private double[] values;
+	
+	private final static int REACH= 3;		// The largest radius searched by Bacterium.gridDiffusion
+	
+	
+	NutrientField() {
+	}
+	
+	public static NutrientField getInstance() {
+		return ModelRun.current().nutrients;
+	}
+	
+	/**
+	 * Allocates an empty field
+	 * 
+	 * @param w The field width
+	 * @param h The field height
+	 */
+	public void reset(int w, int h) {
+		width= w;
+		height= h;
+		values= new double[w * h];
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Sets the same concentration on every site
+	 * 
+	 * @param v The nutrient concentration
+	 */
+	public void fill(double v) {
+		Arrays.fill(values, v);
+		if(v <= 0) return;
+		BacteriumStore store= BacteriumStore.getInstance();
+		for(int s= 0; s< store.size(); s++) {
+			Bacterium b= store.get(s);
+			if(b != null) b.wake();
+		}
+	}
+	
+	/**
+	 * @return the nutrient concentration on site
+	 */
+	public double get(int site) {
+		return values[site];
+	}
+	
+	public void set(int site, double v) {
+		double c= values[site];
+		values[site]= v;
+		if(v > c && v > 0)
+			wakeUp(site);
+	}
+	
+	/**
+	 * Consumes nutrient from a site
+	 * 
+	 * @param site	The site index
+	 * @param r		The required uptake
+	 * @return 		The real uptake which depends on the nutrient available on site
+	 */
+	public double take(int site, double r) {
+		double c= values[site];
+		if(c <= 0) return 0;
+		double v= (c >= r ? r : c);
+		values[site]= c - v;
+		return v;
+	}
+	
+	/**
+	 * Writes the field to a checkpoint
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		out.putDoubles(values, 0, values.length);
+	}
+	
+	/**
+	 * Reads the field from a checkpoint, it must have been reset to its dimensions
+	 */
+	void restore(Checkpoint.Input in) {
+		in.getDoubles(values, 0, values.length);
+	}
+	
+	/**
+	 * Wakes up the starved cells which may reach a site
+	 * 
+	 * @param site The site index
+	 */
+	private void wakeUp(int site) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		BacteriumStore store= BacteriumStore.getInstance();
+		int x= lattice.getX(site);
+		int y= lattice.getY(site);
+		int[] ox= MyNeighborhood.getOffsetsX(REACH, true);
+		int[] oy= MyNeighborhood.getOffsetsY(REACH, true);
+		for(int i= 0; i< ox.length; i++) {
+			int p= lattice.site(x + ox[i], y + oy[i]);
+			for(int s= lattice.first(p); s >= 0; s= lattice.next(s))
+				store.get(s).wake();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.holistic.bactocom;
+
+import repast.simphony.space.Dimensions;
+import repast.simphony.valueLayer.ValueLayer;
+
+/**
+ * Read only adapter exposing the NutrientField as a Repast value layer
+ * so it can still be used by displays and data sources.
+ * 
+ * 
+ * @author APG, ARPA
+ *
+ */
+public class NutrientValueLayer implements ValueLayer {
+	private NutrientField field;
+	private Dimensions dimensions;
+	
+	public NutrientValueLayer(NutrientField field) {
+		this.field= field;
+		this.dimensions= new Dimensions(field.getWidth(), field.getHeight());
+	}
+
+	@Override
+	public String getName() {
+		return MyParameters.VL_NUTRIENTS;
+	}
+
+	@Override
+	public double get(double... coordinate) {
+		return field.get(OccupancyLattice.getInstance().site((int) coordinate[0], (int) coordinate[1]));
+	}
+
+	@Override
+	public Dimensions getDimensions() {
+		return dimensions;
+	}
+}
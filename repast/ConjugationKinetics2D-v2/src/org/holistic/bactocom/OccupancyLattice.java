@@ -0,0 +1,302 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primitive occupancy lattice for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * It mirrors the Repast multi-occupancy grid using flat int arrays indexed by site
+ * (site= y * width + x) so the neighborhood queries do not need to go through the
+ * Grid iterators. Every site keeps a singly linked list of the agent slots (as
+ * assigned by the BacteriumStore) placed on it, the lattice wraps around on both
+ * dimensions as the WrapAroundBorders grid.
+ * The number of empty sites on the Moore neighborhood (radius 1) of every site is
+ * kept up to date as sites get occupied or emptied, so the colony frontier (the
+ * occupied sites with at least one empty neighbor) is known without scanning.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class OccupancyLattice {
+	private int width= 0;
+	private int height= 0;
+
+	private int[] head;				// First occupant slot (+1) on each site, 0 means empty
+	private int[] count;			// Number of occupants on each site
+	private int[] next;				// Next occupant slot (+1) on the same site, indexed by slot
+	private int[] location;			// The site where each slot is placed, -1 when not placed
+	private int[] empty;			// Number of empty sites on the Moore neighborhood of each site
+	private final AtomicInteger frontier= new AtomicInteger(0);	// Number of occupied sites with empty neighbors
+
+	OccupancyLattice() {
+	}
+
+	public static OccupancyLattice getInstance() {
+		return ModelRun.current().lattice;
+	}
+
+	/**
+	 * Clears the lattice and set up its dimensions
+	 *
+	 * @param w The lattice width
+	 * @param h The lattice height
+	 */
+	public void reset(int w, int h) {
+		width= w;
+		height= h;
+		head= new int[w * h];
+		count= new int[w * h];
+		empty= new int[w * h];
+		Arrays.fill(empty, 8);
+		frontier.set(0);
+		next= new int[1024];
+		location= new int[1024];
+		Arrays.fill(location, -1);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Maps a (possibly out of bounds) coordinate into a site index
+	 *
+	 * @param x The x coordinate
+	 * @param y The y coordinate
+	 * @return The wrapped site index
+	 */
+	public int site(int x, int y) {
+		x%= width;
+		y%= height;
+		if(x < 0) x+= width;
+		if(y < 0) y+= height;
+		return y * width + x;
+	}
+
+	public int getX(int site) {
+		return site % width;
+	}
+
+	public int getY(int site) {
+		return site / width;
+	}
+
+	/**
+	 * @return The number of agents on site
+	 */
+	public int count(int site) {
+		return count[site];
+	}
+
+	public boolean isEmpty(int site) {
+		return head[site] == 0;
+	}
+
+	/**
+	 * @return The number of empty sites on the Moore neighborhood (radius 1) of site
+	 */
+	public int countEmptyNeighbors(int site) {
+		return empty[site];
+	}
+
+	/**
+	 * @return true if site has at least one empty neighbor, i.e. a cell on it may divide
+	 */
+	public boolean isFrontier(int site) {
+		return empty[site] > 0;
+	}
+
+	/**
+	 * @return The number of occupied sites on the colony frontier
+	 */
+	public int getFrontierSize() {
+		return frontier.get();
+	}
+
+	/**
+	 * Gets one of the agents placed on a site. When there is more than one occupant
+	 * the agent is randomly chosen as done before with the shuffled Grid lists.
+	 *
+	 * @param site The site index
+	 * @return The agent or null for empty sites
+	 */
+	public Bacterium get(int site) {
+		int s= head[site];
+		if(s == 0) return null;
+		int c= count[site];
+		if(c > 1) {
+			int k= MyNeighborhood.nextIndex(c);
+			for(int i= 0; i< k; i++)
+				s= next[s - 1];
+		}
+		return BacteriumStore.getInstance().get(s - 1);
+	}
+
+	/**
+	 * @return The slot of the first agent placed on site, -1 for empty sites
+	 */
+	public int first(int site) {
+		return head[site] - 1;
+	}
+
+	/**
+	 * @return The slot of the next agent on the same site, -1 after the last one
+	 */
+	public int next(int slot) {
+		return next[slot] - 1;
+	}
+
+	/**
+	 * @return The site where the agent is placed, -1 if it is not on the lattice
+	 */
+	public int getSite(Bacterium b) {
+		int slot= b.getSlot();
+		return (slot < 0 || slot >= location.length ? -1 : location[slot]);
+	}
+
+	/**
+	 * Places an agent on the lattice, or moves it when it is already placed
+	 *
+	 * @param b The agent
+	 * @param x The x coordinate
+	 * @param y The y coordinate
+	 */
+	public void add(Bacterium b, int x, int y) {
+		int slot= b.getSlot();
+		ensureCapacity(slot + 1);
+		int s= site(x, y);
+		if(location[slot] == s) return;
+		unlink(slot);
+		link(slot, s);
+	}
+
+	/**
+	 * Moves an already placed agent to a new site
+	 *
+	 * @param b The agent
+	 * @param x The x coordinate
+	 * @param y The y coordinate
+	 */
+	public void move(Bacterium b, int x, int y) {
+		add(b, x, y);
+	}
+
+	/**
+	 * Removes an agent from the lattice
+	 *
+	 * @param b The agent
+	 */
+	public void remove(Bacterium b) {
+		int slot= b.getSlot();
+		if(slot < 0 || slot >= location.length) return;
+		unlink(slot);
+	}
+
+	/**
+	 * Makes room for the agent slots below n, the tile stepping engine calls it
+	 * before running the tiles as the lattice must not grow concurrently.
+	 *
+	 * @param n The number of slots
+	 */
+	public void ensureCapacity(int n) {
+		if(n > next.length)
+			grow(Math.max(n, next.length * 2));
+	}
+
+	/**
+	 * Writes the lattice to a checkpoint, the site lists are kept in order
+	 */
+	void save(Checkpoint.Output out) throws IOException {
+		int sites= width * height;
+		out.putInts(head, 0, sites);
+		out.putInts(count, 0, sites);
+		out.putInts(empty, 0, sites);
+		out.putInt(frontier.get());
+		out.putInt(next.length);
+		out.putInts(next, 0, next.length);
+		out.putInts(location, 0, location.length);
+	}
+
+	/**
+	 * Reads the lattice from a checkpoint, it must have been reset to its dimensions
+	 */
+	void restore(Checkpoint.Input in) {
+		int sites= width * height;
+		in.getInts(head, 0, sites);
+		in.getInts(count, 0, sites);
+		in.getInts(empty, 0, sites);
+		frontier.set(in.getInt());
+		int n= in.getInt();
+		next= new int[n];
+		location= new int[n];
+		in.getInts(next, 0, n);
+		in.getInts(location, 0, n);
+	}
+
+	private void grow(int n) {
+		int l= next.length;
+		next= Arrays.copyOf(next, n);
+		location= Arrays.copyOf(location, n);
+		Arrays.fill(location, l, n, -1);
+	}
+
+	private void link(int slot, int s) {
+		if(head[s] == 0)
+			occupy(s, -1);
+		next[slot]= head[s];
+		head[s]= slot + 1;
+		count[s]++;
+		location[slot]= s;
+	}
+
+	private void unlink(int slot) {
+		int s= location[slot];
+		if(s < 0) return;
+		int p= 0;
+		int c= head[s];
+		while(c != 0 && c != slot + 1) {
+			p= c;
+			c= next[c - 1];
+		}
+		if(c == 0) return;
+		if(p == 0)
+			head[s]= next[slot];
+		else
+			next[p - 1]= next[slot];
+		next[slot]= 0;
+		count[s]--;
+		location[slot]= -1;
+		if(head[s] == 0)
+			occupy(s, 1);
+	}
+
+	/**
+	 * Updates the empty neighbor counts around a site which has just changed
+	 * from empty to occupied (d= -1) or the other way around (d= 1).
+	 */
+	private void occupy(int s, int d) {
+		int x= getX(s);
+		int y= getY(s);
+		if(empty[s] > 0)
+			frontier.addAndGet(-d);
+		for(int dx= -1; dx<= 1; dx++) {
+			for(int dy= -1; dy<= 1; dy++) {
+				if(dx == 0 && dy == 0) continue;
+				int p= site(x + dx, y + dy);
+				if(head[p] != 0) {
+					if(empty[p] == 0) frontier.incrementAndGet();
+					else if(empty[p] + d == 0) frontier.decrementAndGet();
+				}
+				empty[p]+= d;
+			}
+		}
+	}
+}
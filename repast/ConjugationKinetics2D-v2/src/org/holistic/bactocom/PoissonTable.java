@@ -0,0 +1,90 @@
+package org.holistic.bactocom;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Tabulated Poisson sampler for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The conjugation count is always drawn with the same mean (the intrinsic
+ * conjugation rate), so its cumulative distribution is computed once and the
+ * variates are found by inversion, starting from a guide table indexed by the
+ * uniform draw. Means too large to tabulate use the rounded normal approximation.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public final class PoissonTable implements Serializable {
+	private final static long serialVersionUID= 1L;
+
+	private final static double MAX_MEAN= 100;			// Largest tabulated mean
+	private final static double EPSILON= 1e-15;			// Neglected upper tail
+
+	private final double mean;
+	private final double[] cdf;
+	private final int[] guide;							// Smallest k with cdf[k] >= i / guide.length
+
+	/**
+	 * @param mean The Poisson mean
+	 */
+	public PoissonTable(double mean) {
+		this.mean= mean;
+		if(mean > MAX_MEAN || mean <= 0) {
+			cdf= null;
+			guide= null;
+			return;
+		}
+		int n= (int) Math.ceil(mean + 12 * Math.sqrt(mean) + 16);
+		double[] c= new double[n];
+		double p= Math.exp(-mean);
+		double f= p;
+		int k= 0;
+		c[0]= f;
+		while(k + 1 < n && 1 - f > EPSILON) {
+			k++;
+			p*= mean / k;
+			f+= p;
+			c[k]= f;
+		}
+		cdf= Arrays.copyOf(c, k + 1);
+		cdf[k]= 1.0;
+
+		guide= new int[cdf.length];
+		int j= 0;
+		for(int i= 0; i< guide.length; i++) {
+			double u= (double) i / guide.length;
+			while(cdf[j] < u) j++;
+			guide[i]= j;
+		}
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Maps a uniform variate to a Poisson one
+	 *
+	 * @param u A uniform variate in [0, 1)
+	 * @param z A standard normal variate, only used for untabulated means
+	 * @return the variate
+	 */
+	public int sample(double u, double z) {
+		if(cdf == null) {
+			if(mean <= 0) return 0;
+			return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * z));
+		}
+		int k= guide[(int) (u * guide.length)];
+		while(cdf[k] < u) k++;
+		return k;
+	}
+
+	/**
+	 * @return true if sample needs the normal variate
+	 */
+	public boolean isApproximate() {
+		return cdf == null && mean > 0;
+	}
+}
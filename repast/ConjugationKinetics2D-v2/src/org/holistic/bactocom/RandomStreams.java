@@ -0,0 +1,171 @@
+package org.holistic.bactocom;
+
+import java.io.Serializable;
+
+import cern.jet.random.Normal;
+import cern.jet.random.Poisson;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+import repast.simphony.random.RandomHelper;
+
+/**
+ * The random processes drawn by the cell agents for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The agents draw from a StepContext, which delegates on one of these. The Colt
+ * implementation wraps the distributions registered on RandomHelper (or private
+ * ones built over a tile engine), so draws depend on the order of the calls. The
+ * CounterStreams implementation derives every draw from the agent, tick and phase
+ * being stepped instead.
+ * The streams are serializable (so are the Colt engines and distributions),
+ * the checkpoints keep their state.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public abstract class RandomStreams implements Serializable {
+	private final static long serialVersionUID= 1L;
+
+
+	/**
+	 * Selects the stream for the agent step about to run, the order dependent
+	 * implementations ignore it.
+	 *
+	 * @param id	The agent id, -1 for draws not tied to an agent
+	 * @param tick	The current tick
+	 * @param phase	The phase key
+	 */
+	public void bind(long id, long tick, int phase) {
+	}
+
+	/**
+	 * Drops the variates cached by former draws, so that the next ones only
+	 * depend on the state of the engine (as when it is seeded again for a tile).
+	 */
+	public void reset() {
+	}
+
+	/**
+	 * @return a standard normal variate for the generation time
+	 */
+	public abstract double nextDivision();
+
+	/**
+	 * @return a standard normal variate for the conjugation rate
+	 */
+	public abstract double nextGamma();
+
+	/**
+	 * @return a Poisson variate with the intrinsic conjugation rate as mean
+	 */
+	public abstract int nextConjugation();
+
+	/**
+	 * @return a uniform variate in (0, 1) for the cell level decisions
+	 */
+	public abstract double nextUniform();
+
+	/**
+	 * @return a uniform index in [0, n) for the neighborhood choices
+	 */
+	public abstract int nextIndex(int n);
+
+	/**
+	 * @return a uniform index in [0, n) for the tick permutation
+	 */
+	public abstract int nextShuffle(int n);
+
+	/**
+	 * Streams over Colt distributions
+	 */
+	static class Colt extends RandomStreams {
+		private final static long serialVersionUID= 1L;
+		private final Normal Z;						// Generation time
+		private final Normal ZGamma;				// Conjugation rate
+		private final Poisson P;					// Conjugative events
+		private final Uniform U;					// Cell level uniform draws
+		private final Uniform UN;					// Neighborhood choices and shuffles
+		private final Uniform US;					// Tick permutation
+
+		/**
+		 * Wraps the distributions registered on RandomHelper
+		 */
+		Colt() {
+			Z= (Normal) RandomHelper.getDistribution(MyParameters.RANDOM_DIVISION);
+			ZGamma= (Normal) RandomHelper.getDistribution(MyParameters.RANDOM_GAMMA0);
+			P= (Poisson) RandomHelper.getDistribution(MyParameters.RANDOM_CONJUGATION);
+			U= (Uniform) RandomHelper.getDistribution(MyParameters.RANDOM_UNIFORM1);
+			UN= (Uniform) RandomHelper.getDistribution(MyParameters.RANDOM_NEIGHBORHOOD);
+			US= RandomHelper.getUniform();
+		}
+
+		/**
+		 * Builds private distributions over an engine
+		 *
+		 * @param engine	The random engine
+		 * @param rate		The intrinsic conjugation rate
+		 */
+		Colt(RandomEngine engine, double rate) {
+			Z= new CachedNormal(engine);
+			ZGamma= new CachedNormal(engine);
+			P= new Poisson(rate, engine);
+			U= new Uniform(engine);
+			UN= new Uniform(engine);
+			US= UN;
+		}
+
+		@Override
+		public void reset() {
+			if(Z instanceof CachedNormal)
+				((CachedNormal) Z).clear();
+			if(ZGamma instanceof CachedNormal)
+				((CachedNormal) ZGamma).clear();
+		}
+
+		@Override
+		public double nextDivision() {
+			return Z.nextDouble();
+		}
+
+		@Override
+		public double nextGamma() {
+			return ZGamma.nextDouble();
+		}
+
+		@Override
+		public int nextConjugation() {
+			return P.nextInt();
+		}
+
+		@Override
+		public double nextUniform() {
+			return U.nextDouble();
+		}
+
+		@Override
+		public int nextIndex(int n) {
+			return UN.nextIntFromTo(0, n - 1);
+		}
+
+		@Override
+		public int nextShuffle(int n) {
+			return US.nextIntFromTo(0, n - 1);
+		}
+	}
+
+	/**
+	 * Standard normal whose cached second polar variate can be dropped
+	 */
+	static class CachedNormal extends Normal {
+		private final static long serialVersionUID= 1L;
+
+		CachedNormal(RandomEngine engine) {
+			super(0, 1, engine);
+		}
+
+		void clear() {
+			cacheFilled= false;
+		}
+	}
+}
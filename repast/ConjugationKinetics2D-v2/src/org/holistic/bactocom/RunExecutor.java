@@ -0,0 +1,222 @@
+package org.holistic.bactocom;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent headless runs for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Runs HeadlessEngine replicates on a fixed thread pool, every run on its own
+ * ModelRun. A run is only started once its estimated footprint fits in the
+ * memory budget, so a sweep cannot take more heap than allowed whatever the
+ * number of threads.
+ *
+ * Usage: RunExecutor parameters.xml outputDir threads seed... [name=value ...]
+ * One run per seed, written to outputDir/ModelOutput.run.txt (or .bcol with
+ * outputFormat=bcol, see ColumnarSink)
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class RunExecutor {
+	public final static long SITE_BYTES= 20;		// Occupancy lattice and nutrient field
+	public final static long CELL_BYTES= 640;		// Store columns, agent view, encounter set and queue entry, with growth slack
+	public final static long RUN_BYTES= 4 << 20;	// Fixed per run overhead (parser, buffers)
+	private final static int KB= 1024;
+
+	private final ExecutorService pool;
+	private final Semaphore memory;				// The free memory budget, in KB
+	private final int budget;					// The memory budget, in KB
+
+	/**
+	 * @param threads	The number of concurrent runs
+	 * @param bytes		The memory budget for the runs
+	 */
+	public RunExecutor(int threads, long bytes) {
+		if(threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.pool= Executors.newFixedThreadPool(threads);
+		this.budget= (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / KB));
+		this.memory= new Semaphore(budget, true);
+	}
+
+	/**
+	 * A budget of three quarters of the maximum heap
+	 */
+	public RunExecutor(int threads) {
+		this(threads, Runtime.getRuntime().maxMemory() / 4 * 3);
+	}
+
+	/**
+	 * Estimates the memory a run needs, the cells are bounded by the lattice sites.
+	 * The parameters are read from values, whatever run the calling thread is on.
+	 *
+	 * @param values	The model parameters by name
+	 * @return the estimate in bytes
+	 */
+	public static long estimate(Map<String, Object> values) {
+		ModelRun previous= new ModelRun(values).enter();
+		try {
+			long sites= (long) MyParameters.getWidth() * MyParameters.getHeight();
+			return RUN_BYTES + sites * (SITE_BYTES + CELL_BYTES);
+		} finally {
+			ModelRun.exit(previous);
+		}
+	}
+
+	/**
+	 * Queues a run
+	 *
+	 * @param values	The model parameters by name
+	 * @param run		The run number
+	 * @param out		The output file, columnar if it ends in .bcol
+	 * @return the output file once the run is done
+	 */
+	public Future<File> submit(final Map<String, Object> values, final int run, final File out) {
+		return admit(values, new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				if(HeadlessEngine.isColumnar(out)) {
+					HeadlessEngine engine= new HeadlessEngine(values);
+					engine.setColumnar(out, true);
+					engine.run(null, run, false);
+					return out;
+				}
+				Writer w= new BufferedWriter(new FileWriter(out));
+				try {
+					new HeadlessEngine(values).run(w, run, true);
+				} finally {
+					w.close();
+				}
+				return out;
+			}
+		});
+	}
+
+	/**
+	 * Queues a run with no output
+	 *
+	 * @param values	The model parameters by name
+	 * @param monitor	The divergence monitor of the run, null to make one from the parameters
+	 * @param fork		The state the run branches from, null to build it
+	 * @return the fitting error of the run, see HeadlessEngine.fit()
+	 */
+	public Future<Double> submitFit(final Map<String, Object> values, final DivergenceMonitor monitor, final Fork fork) {
+		return admit(values, new Callable<Double>() {
+			@Override
+			public Double call() throws Exception {
+				if(monitor != null && monitor.isStopped())
+					return monitor.getError();		// A replicate already gave up
+				HeadlessEngine engine= new HeadlessEngine(values);
+				engine.setMonitor(monitor);
+				engine.setFork(fork);
+				return engine.fit();
+			}
+		});
+	}
+
+	/**
+	 * Queues the shared prefix of a set of runs
+	 *
+	 * @param values	The model parameters by name
+	 * @param tick		The branching tick
+	 * @return the state of the run at the branching tick
+	 */
+	public Future<Fork> submitFork(final Map<String, Object> values, final double tick) {
+		return admit(values, new Callable<Fork>() {
+			@Override
+			public Fork call() throws Exception {
+				return new HeadlessEngine(values).fork(tick);
+			}
+		});
+	}
+
+	/**
+	 * Queues a task that starts once the memory estimate of its run is available
+	 *
+	 * @param values	The parameters of the run
+	 * @param task		The run
+	 */
+	private <T> Future<T> admit(Map<String, Object> values, final Callable<T> task) {
+		final int permits= (int) Math.min(budget, Math.max(1, estimate(values) / KB));
+		return pool.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				memory.acquire(permits);
+				try {
+					return task.call();
+				} finally {
+					memory.release(permits);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for the queued runs and stops the threads
+	 */
+	public void shutdown() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 4) {
+			System.err.println("Usage: RunExecutor parameters.xml outputDir threads seed... [name=value ...]");
+			System.exit(1);
+		}
+		long t0= System.currentTimeMillis();
+		Map<String, String> types= new HashMap<String, String>();
+		Map<String, Object> values= HeadlessEngine.loadParameters(new File(args[0]), types);
+		File dir= new File(args[1]);
+		dir.mkdirs();
+		int threads= Integer.parseInt(args[2]);
+
+		List<Integer> seeds= new ArrayList<Integer>();
+		for(int i= 3; i< args.length; i++) {
+			int k= args[i].indexOf('=');
+			if(k < 0) {
+				seeds.add(Integer.valueOf(args[i]));
+				continue;
+			}
+			String name= args[i].substring(0, k);
+			if(!types.containsKey(name))
+				throw new IllegalArgumentException("Unknown parameter: " + name);
+			values.put(name, HeadlessEngine.convert(types.get(name), args[i].substring(k + 1)));
+		}
+
+		String format= MyParameters.toOutputFormat(values.get(MyParameters.PN_OUTPUT_FORMAT));
+		RunExecutor executor= new RunExecutor(threads);
+		List<Future<File>> runs= new ArrayList<Future<File>>();
+		for(int i= 0; i< seeds.size(); i++) {
+			Map<String, Object> v= new HashMap<String, Object>(values);
+			v.put(MyParameters.PN_RANDOM_SEED, seeds.get(i));
+			runs.add(executor.submit(v, i + 1, new File(dir, "ModelOutput." + (i + 1) + "." + format)));
+		}
+		executor.shutdown();
+		for(Future<File> f : runs) {
+			try {
+				System.out.println("Wrote " + f.get());
+			} catch(ExecutionException e) {
+				System.err.println("Run failed: " + e.getCause());
+			}
+		}
+		System.out.println(seeds.size() + " runs done in " + (System.currentTimeMillis() - t0) + " ms");
+	}
+}
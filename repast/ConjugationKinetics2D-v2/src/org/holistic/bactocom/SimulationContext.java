@@ -0,0 +1,131 @@
+package org.holistic.bactocom;
+
+import repast.simphony.context.Context;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.space.grid.Grid;
+
+/**
+ * Per run simulation context for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * It holds the engine references the agents and the phase kernels need: the
+ * Repast context and grid, the occupancy lattice, the agent store, the nutrient
+ * field, the clock and the serial random streams. The agents keep a reference
+ * to it, so the per call ContextUtils and RunEnvironment lookups are gone.
+ *
+ * The Repast context, grid and schedule are optional. Without them the cells
+ * only live on the lattice and the clock is advanced by whoever steps the model,
+ * which allows running the model core outside the Repast runtime.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class SimulationContext {
+	private final Context<Object> context;		// The Repast context, null when headless
+	private final Grid<Object> grid;			// The Repast grid, null when headless
+	private final ISchedule schedule;			// The Repast schedule, null when headless
+	private final OccupancyLattice lattice;
+	private final BacteriumStore store;
+	private final NutrientField nutrients;
+	private final RandomStreams streams;		// The serial random streams
+	private final int seed;
+	private final double conjugationRate;
+	private double tick;
+
+	/**
+	 * @param context			The Repast context or null
+	 * @param grid				The Repast grid or null
+	 * @param schedule			The Repast schedule or null
+	 * @param streams			The serial random streams
+	 * @param seed				The random seed
+	 * @param conjugationRate	The intrinsic conjugation rate
+	 */
+	public SimulationContext(Context<Object> context, Grid<Object> grid, ISchedule schedule, RandomStreams streams, int seed, double conjugationRate) {
+		this.context= context;
+		this.grid= grid;
+		this.schedule= schedule;
+		this.lattice= OccupancyLattice.getInstance();
+		this.store= BacteriumStore.getInstance();
+		this.nutrients= NutrientField.getInstance();
+		this.streams= streams;
+		this.seed= seed;
+		this.conjugationRate= conjugationRate;
+		this.tick= (schedule != null ? schedule.getTickCount() : 0);
+	}
+
+	/**
+	 * @return the context of the current run
+	 */
+	public static SimulationContext getInstance() {
+		return ModelRun.current().simulation;
+	}
+
+	/**
+	 * Makes a context the current run, the cells created from now on are bound to it
+	 */
+	public static void setInstance(SimulationContext c) {
+		ModelRun.current().simulation= c;
+	}
+
+	public Context<Object> getContext() {
+		return context;
+	}
+
+	public Grid<Object> getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @return true if the cells are mirrored on a Repast context and grid
+	 */
+	public boolean isMirrored() {
+		return context != null && grid != null;
+	}
+
+	public OccupancyLattice getLattice() {
+		return lattice;
+	}
+
+	public BacteriumStore getStore() {
+		return store;
+	}
+
+	public NutrientField getNutrients() {
+		return nutrients;
+	}
+
+	public RandomStreams getStreams() {
+		return streams;
+	}
+
+	public int getSeed() {
+		return seed;
+	}
+
+	public double getConjugationRate() {
+		return conjugationRate;
+	}
+
+	/**
+	 * @return the current tick
+	 */
+	public double getTick() {
+		return tick;
+	}
+
+	/**
+	 * Sets the clock, the scheduled runs take it from the Repast schedule
+	 */
+	public void setTick(double t) {
+		tick= t;
+	}
+
+	/**
+	 * Reads the clock from the Repast schedule, if any
+	 */
+	void advance() {
+		if(schedule != null)
+			tick= schedule.getTickCount();
+	}
+}
@@ -0,0 +1,436 @@
+package org.holistic.bactocom;
+
+import java.util.Arrays;
+
+import cern.jet.random.engine.RandomEngine;
+import repast.simphony.context.Context;
+import repast.simphony.random.RandomHelper;
+import repast.simphony.space.grid.Grid;
+
+/**
+ * Agent stepping context for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * It holds what an agent step needs besides the shared lattice: the random
+ * streams, the neighborhood scratch buffers and the operations which change
+ * the global simulation structures (agent allocation, division queue, active
+ * set and the Repast context/grid mirror).
+ *
+ * The serial context uses the registered Repast distributions and applies every
+ * operation at once. When the lattice is stepped by tiles each tile gets its own
+ * context: the random streams are seeded from (seed, tick, phase, tile), store
+ * slots and agent ids come from sets reserved beforehand and the global
+ * operations are deferred until merge() is called on the scheduler thread.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class StepContext {
+	private final static int MOVE= 0;
+	private final static int ADD= 1;
+
+	private final static ThreadLocal<StepContext> CURRENT= new ThreadLocal<StepContext>();
+
+	// Random streams
+	private RandomStreams streams;
+	private final SplitMixEngine engine;
+
+	// Neighborhood scratch buffers
+	final int[] emptyBuffer= MyNeighborhood.newBuffer(1);
+	final int[] siteBuffer= MyNeighborhood.newBuffer(MyNeighborhood.MAX_SIZE);
+
+	private final boolean deferred;
+	private StepContext outer= null;		// The context bound to the thread before begin()
+
+	// Reserved store slots and agent ids
+	private int[] slots= null;
+	private int slot0= 0;				// The first slot of this context on slots
+	private int nslots= 0;
+	private int used= 0;
+	private long id0= 0;
+
+	// Deferred operations, replayed in order by merge()
+	private Bacterium[] dormant= new Bacterium[16];
+	private int ndormant= 0;
+	private Bacterium[] queued= new Bacterium[16];
+	private int nqueued= 0;
+	private Bacterium[] mirror= new Bacterium[16];
+	private int[] mirrorOp= new int[16];
+	private int[] mirrorSite= new int[16];
+	private int nmirror= 0;
+
+	private StepContext(boolean deferred) {
+		this.deferred= deferred;
+		this.engine= (deferred ? new SplitMixEngine() : null);
+	}
+
+	/**
+	 * Creates the serial context of a run
+	 */
+	static StepContext newSerialContext() {
+		return new StepContext(false);
+	}
+
+	/**
+	 * Creates a deferred context for a lattice tile
+	 */
+	public static StepContext newTileContext() {
+		return new StepContext(true);
+	}
+
+	/**
+	 * Binds the serial context to the random streams of a run
+	 * 
+	 * @param simulation The run
+	 */
+	public static void init(SimulationContext simulation) {
+		ModelRun.current().serial.streams= simulation.getStreams();
+	}
+
+	/**
+	 * Binds a serial context to the calling thread, see ModelRun.enter
+	 */
+	static void bind(StepContext c) {
+		if(c == null)
+			CURRENT.remove();
+		else
+			CURRENT.set(c);
+	}
+
+	/**
+	 * Creates the serial random streams selected by the model parameters: the
+	 * registered Repast distributions (or the counter based or block sampled
+	 * streams), it must be called once the random distributions have been
+	 * registered.
+	 *
+	 * @param seed				The random seed
+	 * @param conjugationRate	The intrinsic conjugation rate
+	 * @return the streams
+	 */
+	public static RandomStreams newSerialStreams(int seed, double conjugationRate) {
+		if(MyParameters.isCounterRng())
+			return new CounterStreams(seed, conjugationRate);
+		if(MyParameters.isBufferedRng())
+			return new BufferedStreams(RandomHelper.getGenerator(), conjugationRate);
+		return new RandomStreams.Colt();
+	}
+
+	/**
+	 * Creates the random streams selected by the model parameters over a
+	 * private engine, for runs without the Repast random registry.
+	 *
+	 * @param seed				The random seed
+	 * @param conjugationRate	The intrinsic conjugation rate
+	 * @param engine			The uniform source
+	 * @return the streams
+	 */
+	public static RandomStreams newStreams(int seed, double conjugationRate, RandomEngine engine) {
+		if(MyParameters.isCounterRng())
+			return new CounterStreams(seed, conjugationRate);
+		if(MyParameters.isBufferedRng())
+			return new BufferedStreams(engine, conjugationRate);
+		return new RandomStreams.Colt(engine, conjugationRate);
+	}
+
+	/**
+	 * @return the context bound to the calling thread, the serial one of the run by default
+	 */
+	public static StepContext current() {
+		StepContext c= CURRENT.get();
+		return (c == null ? ModelRun.current().serial : c);
+	}
+
+	public boolean isDeferred() {
+		return deferred;
+	}
+
+	/**
+	 * Selects the random streams of an agent step, see RandomStreams.bind
+	 */
+	public void bind(long id, long tick, int phase) {
+		streams.bind(id, tick, phase);
+	}
+
+	public double nextDivision() {
+		return streams.nextDivision();
+	}
+
+	public double nextGamma() {
+		return streams.nextGamma();
+	}
+
+	public int nextConjugation() {
+		return streams.nextConjugation();
+	}
+
+	public double nextUniform() {
+		return streams.nextUniform();
+	}
+
+	public int nextIndex(int n) {
+		return streams.nextIndex(n);
+	}
+
+	public int nextShuffle(int n) {
+		return streams.nextShuffle(n);
+	}
+
+	/**
+	 * Prepares a tile context for stepping and binds it to the calling thread.
+	 * The streams are made on the first tile run and then kept: the engine is
+	 * seeded again and the cached variates are dropped, so that nothing leaks
+	 * from the previous tile run. The counter based streams need no seeding,
+	 * they are bound to each agent step.
+	 *
+	 * @param tick	The current tick
+	 * @param phase	The phase key
+	 * @param tile	The tile index
+	 */
+	void begin(long tick, int phase, int tile) {
+		SimulationContext simulation= SimulationContext.getInstance();
+		int seed= simulation.getSeed();
+		double conjugationRate= simulation.getConjugationRate();
+		if(streams == null)
+			streams= newStreams(seed, conjugationRate, engine);
+		else
+			streams.reset();
+		if(!(streams instanceof CounterStreams))
+			engine.seed(EncounterSet.mix(seed ^ EncounterSet.mix(tick ^ EncounterSet.mix(((long) phase << 32) | (tile & 0xffffffffL)))));
+		outer= CURRENT.get();
+		CURRENT.set(this);
+	}
+
+	/**
+	 * Unbinds the context from the calling thread
+	 */
+	void end() {
+		bind(outer);
+		outer= null;
+	}
+
+	/**
+	 * Hands a set of reserved store slots and a range of agent ids to a tile context
+	 *
+	 * @param slots	The reserved slots, shared with other contexts
+	 * @param from	The first slot of this context on slots
+	 * @param n		The number of reserved slots (and ids)
+	 * @param id	The first reserved id
+	 */
+	void reserve(int[] slots, int from, int n, long id) {
+		this.slots= slots;
+		slot0= from;
+		nslots= n;
+		used= 0;
+		id0= id;
+	}
+
+	/**
+	 * Allocates the store slot of a new agent
+	 *
+	 * @param b The agent view
+	 * @return the slot
+	 */
+	int allocate(Bacterium b) {
+		if(!deferred)
+			return BacteriumStore.getInstance().allocate(b);
+		if(used == nslots)
+			throw new IllegalStateException("Tile slot reservation exhausted");
+		int slot= slots[slot0 + used++];
+		BacteriumStore.getInstance().attach(slot, b);
+		return slot;
+	}
+
+	/**
+	 * @return a new agent identifier, ids are reserved along with the slots so
+	 * a tile gives the one of the last allocated slot
+	 */
+	long createId() {
+		if(!deferred)
+			return Genotype.createId();
+		return id0 + used - 1;
+	}
+
+	/**
+	 * Removes a starved agent from the active set
+	 */
+	void deactivate(Bacterium b) {
+		if(!deferred) {
+			BacteriumStore.getInstance().deactivate(b.getSlot());
+			return;
+		}
+		if(ndormant == dormant.length)
+			dormant= Arrays.copyOf(dormant, ndormant * 2);
+		dormant[ndormant++]= b;
+	}
+
+	/**
+	 * Queues the next division of an agent
+	 */
+	void queueDivision(Bacterium b) {
+		if(!deferred) {
+			DivisionQueue.getInstance().add(b);
+			return;
+		}
+		if(nqueued == queued.length)
+			queued= Arrays.copyOf(queued, nqueued * 2);
+		queued[nqueued++]= b;
+	}
+
+	/**
+	 * Places a newborn cell on the lattice and on the Repast context and grid
+	 *
+	 * @param mother	A cell already on the context
+	 * @param daughter	The new cell
+	 * @param x			The x coordinate
+	 * @param y			The y coordinate
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void addToGrid(Bacterium mother, Bacterium daughter, int x, int y) {
+		SimulationContext simulation= SimulationContext.getInstance();
+		OccupancyLattice lattice= simulation.getLattice();
+		if(deferred) {
+			lattice.add(daughter, x, y);
+			defer(ADD, daughter, lattice.site(x, y));
+			return;
+		}
+		if(!simulation.isMirrored()) {
+			lattice.add(daughter, x, y);
+			return;
+		}
+		Context context = simulation.getContext();
+		Grid grid = simulation.getGrid();
+		context.add(daughter);
+		boolean moved= grid.moveTo(daughter,x,y);
+		if(!moved) {
+			System.out.println("Error moving in division!!");
+			context.remove(daughter);
+			daughter.release();
+			return;
+		}
+		lattice.add(daughter, x, y);
+	}
+
+	/**
+	 * Moves a cell on the lattice and on the Repast grid, the cell leaves the
+	 * simulation when the grid refuses the move.
+	 *
+	 * @param b	The cell
+	 * @param x	The x coordinate
+	 * @param y	The y coordinate
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void moveTo(Bacterium b, int x, int y) {
+		SimulationContext simulation= SimulationContext.getInstance();
+		OccupancyLattice lattice= simulation.getLattice();
+		if(deferred) {
+			lattice.move(b, x, y);
+			defer(MOVE, b, lattice.site(x, y));
+			return;
+		}
+		if(!simulation.isMirrored()) {
+			lattice.move(b, x, y);
+			return;
+		}
+		Context context = simulation.getContext();
+		Grid grid = simulation.getGrid();
+		boolean moved= grid.moveTo((Object) b, x, y);
+		if(moved) {
+			lattice.move(b, x, y);
+		} else {
+			lattice.remove(b);
+			context.remove(b);
+			b.release();
+		}
+	}
+
+	/**
+	 * Replays the deferred operations on the global structures, it must be
+	 * called from the scheduler thread once the tile has been stepped.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void merge() {
+		SimulationContext simulation= SimulationContext.getInstance();
+		BacteriumStore store= simulation.getStore();
+		OccupancyLattice lattice= simulation.getLattice();
+
+		for(int i= 0; i< used; i++)
+			store.commit(slots[slot0 + i]);
+		for(int i= used; i< nslots; i++)
+			store.free(slots[slot0 + i]);
+		slots= null;
+		nslots= 0;
+		used= 0;
+
+		if(nmirror > 0 && !simulation.isMirrored()) {
+			Arrays.fill(mirror, 0, nmirror, null);
+			nmirror= 0;
+		}
+		if(nmirror > 0) {
+			Context context = simulation.getContext();
+			Grid grid = simulation.getGrid();
+			for(int i= 0; i< nmirror; i++) {
+				Bacterium b= mirror[i];
+				mirror[i]= null;
+				if(b.getSlot() < 0) continue;
+				int x= lattice.getX(mirrorSite[i]);
+				int y= lattice.getY(mirrorSite[i]);
+				if(mirrorOp[i] == ADD)
+					context.add(b);
+				if(!grid.moveTo((Object) b, x, y)) {
+					if(mirrorOp[i] == ADD)
+						System.out.println("Error moving in division!!");
+					lattice.remove(b);
+					context.remove(b);
+					b.release();
+				}
+			}
+			nmirror= 0;
+		}
+
+		for(int i= 0; i< nqueued; i++) {
+			if(queued[i].getSlot() >= 0)
+				DivisionQueue.getInstance().add(queued[i]);
+			queued[i]= null;
+		}
+		nqueued= 0;
+
+		for(int i= 0; i< ndormant; i++) {
+			Bacterium b= dormant[i];
+			if(b.getSlot() >= 0 && b.isStarved())
+				store.deactivate(b.getSlot());
+			dormant[i]= null;
+		}
+		ndormant= 0;
+	}
+
+	private void defer(int op, Bacterium b, int site) {
+		if(nmirror == mirror.length) {
+			mirror= Arrays.copyOf(mirror, nmirror * 2);
+			mirrorOp= Arrays.copyOf(mirrorOp, nmirror * 2);
+			mirrorSite= Arrays.copyOf(mirrorSite, nmirror * 2);
+		}
+		mirror[nmirror]= b;
+		mirrorOp[nmirror]= op;
+		mirrorSite[nmirror]= site;
+		nmirror++;
+	}
+
+	/**
+	 * Small reseedable engine (SplitMix64) for the tile streams
+	 */
+	static class SplitMixEngine extends RandomEngine {
+		private final static long serialVersionUID= 1L;
+		private long state;
+
+		void seed(long s) {
+			state= s;
+		}
+
+		@Override
+		public int nextInt() {
+			state+= 0x9e3779b97f4a7c15L;
+			return (int) (EncounterSet.mix(state) >>> 32);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package org.holistic.bactocom;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import repast.simphony.context.Context;
+import repast.simphony.data2.AggregateDataSource;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+
+/**
+ * Tabular text output for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Writes the DS::All rows as the former FS::Model file sink did: the quoted column
+ * names, then one comma separated row per record with the strings quoted.
+ * The run number and the seed are written on every row. The outcome of the run
+ * (see DivergenceMonitor) follows the rows, as "# name= value" lines.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class TextSink {
+	private final static String RUN= "run";
+	private final static String RANDOM_SEED= "random_seed";
+	private final static List<Object> SOURCE= Collections.singletonList(null);
+
+	private final Writer out;
+	private final int run;
+	private final StringBuilder sb= new StringBuilder();
+	private List<Object> source= SOURCE;		// What the data sources are evaluated on
+
+	/**
+	 * @param out		The output
+	 * @param run		The run number written on every row
+	 * @param header	Whether the column names are written first
+	 */
+	public TextSink(Writer out, int run, boolean header) throws IOException {
+		this.out= out;
+		this.run= run;
+		if(!header) return;
+		AggregateDataSource[] columns= HeadlessEngine.COLUMNS;
+		for(int i= 0; i< columns.length; i++) {
+			if(i > 0) sb.append(',');
+			String id= (i == 1 ? RUN : i == 2 ? RANDOM_SEED : columns[i].getId());
+			sb.append('"').append(id).append('"');
+		}
+		out.write(sb.append('\n').toString());
+	}
+
+	/**
+	 * Records the DS::All schedule of a Repast run (tick 5 and then every 10
+	 * ticks, after every other action) and ends the output at the end of the run
+	 *
+	 * @param context The context the data sources are evaluated on
+	 */
+	public void schedule(Context<Object> context) {
+		source= Collections.<Object>singletonList(context);
+		ISchedule schedule= RunEnvironment.getInstance().getCurrentSchedule();
+		schedule.schedule(ScheduleParameters.createRepeating(HeadlessEngine.RECORD_START, HeadlessEngine.RECORD_INTERVAL,
+				ScheduleParameters.LAST_PRIORITY), this, "record");
+		schedule.schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "end");
+	}
+
+	/**
+	 * Appends a row with the current values of the columns
+	 */
+	public void record() throws IOException {
+		AggregateDataSource[] columns= HeadlessEngine.COLUMNS;
+		sb.setLength(0);
+		for(int i= 0; i< columns.length; i++) {
+			if(i > 0) sb.append(',');
+			Object v= (i == 1 ? run : i == 2 ? MyParameters.getRandomSeed() : columns[i].get(source, 1));
+			if(v instanceof String)
+				sb.append('"').append(v).append('"');
+			else
+				sb.append(v);
+		}
+		out.write(sb.append('\n').toString());
+	}
+
+	/**
+	 * Writes the outcome of the current run
+	 */
+	public void writeStatus() throws IOException {
+		for(Map.Entry<String, String> e : ModelRatesHelper.getInstance().getMonitor().getStatusEntries().entrySet())
+			out.write("# " + e.getKey() + "= " + e.getValue() + "\n");
+	}
+
+	/**
+	 * Writes the outcome of the current run and closes the output
+	 */
+	public void end() throws IOException {
+		try {
+			writeStatus();
+		} finally {
+			close();
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+}
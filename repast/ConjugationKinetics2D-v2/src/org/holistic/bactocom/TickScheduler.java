@@ -0,0 +1,253 @@
+package org.holistic.bactocom;
+
+import java.util.Arrays;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+
+/**
+ * Engine level agent scheduler for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * It replaces the per agent annotated step methods with a single repeating action.
+ * On every tick the live agents are snapshot and shuffled once, then the phase
+ * kernels are run over that permutation. By default each phase visits every agent
+ * before the next phase starts (as the former shuffled actions did); the fused mode
+ * runs all the phases of an agent in a single pass instead.
+ * Only the agents on the store active set are stepped, starved cells are left
+ * out until they are woken up. Agents born during a tick are not stepped until
+ * the next one, agents removed during a tick are skipped by the remaining phases.
+ * The division phase only visits the cells drained from the DivisionQueue, in
+ * permutation order. When a tile size is set, the agents are stepped by the
+ * TileStepper instead.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class TickScheduler {
+
+	/**
+	 * The per agent phase kernels, in their default sequence
+	 */
+	public enum Phase {
+		DIVISION {
+			@Override
+			void step(Bacterium b) {
+				b.stepDivision();
+			}
+		},
+		SHOVING {
+			@Override
+			void step(Bacterium b) {
+				b.stepShoving();
+			}
+		},
+		CONJUGATION {
+			@Override
+			void step(Bacterium b) {
+				b.stepConjugation();
+			}
+		},
+		SUPERINFECTION {
+			@Override
+			void step(Bacterium b) {
+				b.stepSuperInfection();
+			}
+		};
+
+		abstract void step(Bacterium b);
+	}
+
+	private Phase[] phases= Phase.values();
+	private boolean fused= false;
+	private Bacterium[] order= new Bacterium[1024];		// The tick permutation
+	private int[] rank= new int[1024];					// The permutation position of each slot
+	private int[] batch= new int[1024];					// Ranks of the cells due to divide
+	private int n= 0;
+	private TileStepper tiles= null;						// The tile parallel engine, null for serial stepping
+
+	TickScheduler() {
+	}
+
+	public static TickScheduler getInstance() {
+		return ModelRun.current().scheduler;
+	}
+
+	/**
+	 * Restores the default phase sequence and registers the tick action on the
+	 * current schedule, it must be called once per run. The tile worker threads
+	 * are released at the end of the run.
+	 */
+	public void init() {
+		reset();
+		ISchedule schedule= RunEnvironment.getInstance().getCurrentSchedule();
+		schedule.schedule(ScheduleParameters.createRepeating(1, 1), this, "step");
+		schedule.schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "stop");
+	}
+
+	/**
+	 * Releases the tile worker threads, the next ticks are stepped serially
+	 */
+	public void stop() {
+		setTiles(0, 0);
+	}
+
+	/**
+	 * Restores the default phase sequence without scheduling anything, the
+	 * caller steps the ticks itself.
+	 */
+	public void reset() {
+		phases= Phase.values();
+		fused= MyParameters.isFusedTick();
+		n= 0;
+		setTiles(MyParameters.getTileSize(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Sets the sequence of phase kernels run on every tick
+	 *
+	 * @param p The phases, in execution order
+	 */
+	public void setPhases(Phase... p) {
+		phases= p.clone();
+	}
+
+	public Phase[] getPhases() {
+		return phases.clone();
+	}
+
+	public boolean isFused() {
+		return fused;
+	}
+
+	/**
+	 * @param v true to run every phase of an agent before moving to the next agent
+	 */
+	public void setFused(boolean v) {
+		fused= v;
+	}
+
+	/**
+	 * Switches between serial and tile parallel stepping
+	 *
+	 * @param size		The minimum tile size, 0 for serial stepping
+	 * @param threads	The number of worker threads
+	 */
+	public void setTiles(int size, int threads) {
+		if(tiles != null)
+			tiles.shutdown();
+		tiles= null;
+		if(size > 0) {
+			OccupancyLattice lattice= OccupancyLattice.getInstance();
+			tiles= new TileStepper(lattice.getWidth(), lattice.getHeight(), size, threads);
+		}
+	}
+
+	/**
+	 * The scheduled action, steps every live agent and then takes the tick
+	 * metrics snapshot
+	 */
+	public void step() {
+		SimulationContext.getInstance().advance();
+		permute();
+		if(fused) {
+			// The division kernel checks the due time itself, the queue is just drained
+			DivisionQueue.getInstance().poll(getTickCount());
+			run(phases, null, n, Phase.values().length);
+		} else {
+			for(Phase p : phases) {
+				if(p == Phase.DIVISION) {
+					stepDivisions();
+					continue;
+				}
+				run(new Phase[] {p}, null, n, p.ordinal());
+			}
+		}
+		Arrays.fill(order, 0, n, null);
+		n= 0;
+		ModelRatesHelper rates= ModelRatesHelper.getInstance();
+		if(rates.update(getTickCount()) && SimulationContext.getInstance().isMirrored()) {
+			// The output sinks write the monitor status at the end of the run
+			RunEnvironment.getInstance().endRun();
+		}
+	}
+
+	/**
+	 * Runs the phase kernels over a list of agents
+	 *
+	 * @param p		The phases, in order
+	 * @param ranks	The positions on the permutation to step, or null for all of them
+	 * @param k		The number of agents
+	 * @param key	The phase key for the tile random streams
+	 */
+	private void run(Phase[] p, int[] ranks, int k, int key) {
+		if(tiles != null) {
+			tiles.run(p, order, ranks, k, (long) getTickCount(), key);
+			return;
+		}
+		StepContext c= StepContext.current();
+		long tick= (long) getTickCount();
+		for(int i= 0; i< k; i++) {
+			Bacterium b= order[ranks == null ? i : ranks[i]];
+			for(Phase q : p) {
+				if(b.getSlot() < 0) break;
+				c.bind(b.getId(), tick, q.ordinal());
+				q.step(b);
+			}
+		}
+	}
+
+	/**
+	 * Steps the cells due to divide on this tick. Cells born on this tick are
+	 * queued again, they were not stepped by the former per agent actions either.
+	 */
+	private void stepDivisions() {
+		BacteriumStore store= BacteriumStore.getInstance();
+		DivisionQueue queue= DivisionQueue.getInstance();
+		int m= queue.poll(getTickCount());
+		if(batch.length < m)
+			batch= new int[Math.max(m, batch.length * 2)];
+		int k= 0;
+		for(int i= 0; i< m; i++) {
+			int s= queue.getDue(i);
+			int r= (s < rank.length ? rank[s] : -1);
+			if(r >= 0 && r < n && order[r] == store.get(s))
+				batch[k++]= r;
+			else
+				queue.add(store.get(s));
+		}
+		Arrays.sort(batch, 0, k);
+		run(new Phase[] {Phase.DIVISION}, batch, k, Phase.DIVISION.ordinal());
+	}
+
+	private double getTickCount() {
+		return SimulationContext.getInstance().getTick();
+	}
+
+	/**
+	 * Snapshots the active agents and shuffles them (Fisher-Yates)
+	 */
+	private void permute() {
+		BacteriumStore store= BacteriumStore.getInstance();
+		if(order.length < store.activeCount())
+			order= new Bacterium[Math.max(store.activeCount(), order.length * 2)];
+		if(rank.length < store.size())
+			rank= new int[Math.max(store.size(), rank.length * 2)];
+		n= 0;
+		for(int i= 0; i< store.activeCount(); i++)
+			order[n++]= store.get(store.getActive(i));
+
+		StepContext c= StepContext.current();
+		c.bind(-1, (long) getTickCount(), Phase.values().length + 1);
+		for(int i= n - 1; i> 0; i--) {
+			int j= c.nextShuffle(i + 1);
+			Bacterium b= order[i];
+			order[i]= order[j];
+			order[j]= b;
+		}
+		for(int i= 0; i< n; i++)
+			rank[order[i].getSlot()]= i;
+	}
+}
@@ -0,0 +1,217 @@
+package org.holistic.bactocom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tile parallel stepping engine for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The wrap around lattice is split into an even number of tiles on each dimension
+ * and the tiles are coloured as a 2x2 checkerboard. The tiles of one colour are
+ * stepped concurrently on a fork/join pool, one colour after the other. A cell
+ * step reads and writes sites up to REACH away from its own site (nutrient
+ * diffusion, shoving moves and the neighborhood counts kept by the lattice),
+ * so tiles at least 2 * REACH wide keep two tiles of the same colour from ever
+ * touching the same site.
+ *
+ * Every tile has its own StepContext: its random streams depend on the seed,
+ * tick, phase and tile only (or on the agent steps with the counter based
+ * streams), and its global operations are merged in tile order
+ * once the colour is done. The results are thus deterministic for a given seed
+ * and tile size, whatever the number of threads.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class TileStepper {
+	public final static int REACH= 4;
+	public final static int MIN_TILE_SIZE= 2 * REACH;
+
+	private final int ntx;
+	private final int nty;
+	private final int[] tileX;			// Tile column of each lattice column
+	private final int[] tileY;			// Tile row of each lattice row
+	private final StepContext[] contexts;
+	private final ForkJoinPool pool;
+	private final ModelRun run;			// The run the workers step
+
+	private int[] start;				// Bucket offsets by tile
+	private int[] items= new int[1024];	// Agent positions bucketed by tile
+	private int[] tile= new int[1024];	// Tile of each agent position, -1 for removed agents
+	private int[] slots= new int[1024];	// Store slots reserved for the births of a colour
+
+	/**
+	 * @param width		The lattice width
+	 * @param height	The lattice height
+	 * @param size		The minimum tile size
+	 * @param threads	The fork/join parallelism
+	 */
+	public TileStepper(int width, int height, int size, int threads) {
+		if(size < MIN_TILE_SIZE)
+			throw new IllegalArgumentException("Tile size must be at least " + MIN_TILE_SIZE);
+		int nx= width / size;
+		int ny= height / size;
+		nx-= nx % 2;
+		ny-= ny % 2;
+		if(nx < 2 || ny < 2)
+			throw new IllegalArgumentException("Lattice " + width + "x" + height + " is too small for tiles of size " + size);
+		ntx= nx;
+		nty= ny;
+		tileX= new int[width];
+		tileY= new int[height];
+		for(int i= 0; i< ntx; i++)
+			Arrays.fill(tileX, i * width / ntx, (i + 1) * width / ntx, i);
+		for(int i= 0; i< nty; i++)
+			Arrays.fill(tileY, i * height / nty, (i + 1) * height / nty, i);
+		contexts= new StepContext[ntx * nty];
+		for(int i= 0; i< contexts.length; i++)
+			contexts[i]= StepContext.newTileContext();
+		start= new int[contexts.length + 1];
+		pool= new ForkJoinPool(threads);
+		run= ModelRun.current();
+	}
+
+	public int getTileCount() {
+		return contexts.length;
+	}
+
+	/**
+	 * Releases the worker threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Steps a list of agents by tiles
+	 *
+	 * @param phases	The phase kernels run on every agent, in order
+	 * @param order		The tick permutation
+	 * @param ranks		The positions on order to step, in order, or null for all of them
+	 * @param k			The number of agents to step
+	 * @param tick		The current tick
+	 * @param key		The phase key mixed into the random streams
+	 */
+	public void run(TickScheduler.Phase[] phases, Bacterium[] order, int[] ranks, int k, long tick, int key) {
+		OccupancyLattice lattice= OccupancyLattice.getInstance();
+		boolean births= Arrays.asList(phases).contains(TickScheduler.Phase.DIVISION);
+
+		// Bucket the agents by the tile of their current site, keeping their order
+		if(tile.length < k) {
+			tile= new int[Math.max(k, tile.length * 2)];
+			items= new int[tile.length];
+		}
+		Arrays.fill(start, 0);
+		for(int i= 0; i< k; i++) {
+			Bacterium b= order[ranks == null ? i : ranks[i]];
+			int site= (b.getSlot() < 0 ? -1 : lattice.getSite(b));
+			tile[i]= (site < 0 ? -1 : tileY[lattice.getY(site)] * ntx + tileX[lattice.getX(site)]);
+			if(tile[i] >= 0) start[tile[i] + 1]++;
+		}
+		for(int t= 0; t< contexts.length; t++)
+			start[t + 1]+= start[t];
+		int[] fill= Arrays.copyOf(start, contexts.length);
+		for(int i= 0; i< k; i++) {
+			if(tile[i] >= 0)
+				items[fill[tile[i]]++]= (ranks == null ? i : ranks[i]);
+		}
+
+		for(int color= 0; color< 4; color++) {
+			List<TileTask> tasks= new ArrayList<TileTask>();
+			int total= 0;
+			for(int ty= color >> 1; ty< nty; ty+= 2) {
+				for(int tx= color & 1; tx< ntx; tx+= 2) {
+					int t= ty * ntx + tx;
+					if(start[t + 1] > start[t]) {
+						tasks.add(new TileTask(t, phases, order, tick, key));
+						total+= start[t + 1] - start[t];
+					}
+				}
+			}
+			if(tasks.isEmpty()) continue;
+
+			// A cell divides at most once per tick, one slot per stepped cell is enough.
+			// The unused ones go back to the free list on merge, for the next colour.
+			if(births) {
+				if(slots.length < total)
+					slots= new int[Math.max(total, slots.length * 2)];
+				BacteriumStore.getInstance().reserve(slots, total);
+				long id= Genotype.reserveIds(total);
+				lattice.ensureCapacity(BacteriumStore.getInstance().size());
+				int from= 0;
+				for(TileTask task : tasks) {
+					int n= start[task.tile + 1] - start[task.tile];
+					contexts[task.tile].reserve(slots, from, n, id);
+					from+= n;
+					id+= n;
+				}
+			}
+
+			pool.invoke(new ColorTask(tasks));
+			for(TileTask task : tasks)
+				contexts[task.tile].merge();
+		}
+	}
+
+	/**
+	 * Runs the tiles of one colour
+	 */
+	@SuppressWarnings("serial")
+	private static class ColorTask extends RecursiveAction {
+		private final List<TileTask> tasks;
+
+		ColorTask(List<TileTask> tasks) {
+			this.tasks= tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Steps the agents of one tile
+	 */
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveAction {
+		private final int tile;
+		private final TickScheduler.Phase[] phases;
+		private final Bacterium[] order;
+		private final long tick;
+		private final int key;
+
+		TileTask(int tile, TickScheduler.Phase[] phases, Bacterium[] order, long tick, int key) {
+			this.tile= tile;
+			this.phases= phases;
+			this.order= order;
+			this.tick= tick;
+			this.key= key;
+		}
+
+		@Override
+		protected void compute() {
+			StepContext c= contexts[tile];
+			ModelRun previous= run.enter();
+			c.begin(tick, key, tile);
+			try {
+				for(int i= start[tile]; i< start[tile + 1]; i++) {
+					Bacterium b= order[items[i]];
+					for(TickScheduler.Phase p : phases) {
+						if(b.getSlot() < 0) break;
+						c.bind(b.getId(), tick, p.ordinal());
+						p.step(b);
+					}
+				}
+			} finally {
+				c.end();
+				ModelRun.exit(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.holistic.bactocom;
+
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Ziggurat standard normal sampler for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * 128 layer version of the method as published in:
+ * "The Ziggurat Method for Generating Random Variables"
+ * 2000, George Marsaglia and Wai Wan Tsang, Journal of Statistical Software 5(8)
+ *
+ * Most of the draws take a single 32 bit integer and a table lookup, the wedges
+ * and the tail fall back on exp and log.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public final class Ziggurat {
+	private final static double R= 3.442619855899;			// Start of the tail
+	private final static double V= 9.91256303526217e-3;		// Area of every layer
+	private final static double M= 2147483648.0;			// 2^31
+
+	private final static int[] K= new int[128];
+	private final static double[] W= new double[128];
+	private final static double[] F= new double[128];
+	static {
+		double dn= R;
+		double tn= dn;
+		double q= V / Math.exp(-0.5 * dn * dn);
+		K[0]= (int) ((dn / q) * M);
+		K[1]= 0;
+		W[0]= q / M;
+		W[127]= dn / M;
+		F[0]= 1.0;
+		F[127]= Math.exp(-0.5 * dn * dn);
+		for(int i= 126; i>= 1; i--) {
+			dn= Math.sqrt(-2.0 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+			K[i + 1]= (int) ((dn / tn) * M);
+			tn= dn;
+			F[i]= Math.exp(-0.5 * dn * dn);
+			W[i]= dn / M;
+		}
+	}
+
+	private Ziggurat() {
+	}
+
+	/**
+	 * Draws a standard normal variate
+	 *
+	 * @param e The uniform source
+	 * @return the variate
+	 */
+	public static double nextNormal(RandomEngine e) {
+		int hz= e.nextInt();
+		int iz= hz & 127;
+		if(Math.abs(hz) < K[iz])
+			return hz * W[iz];
+		return fix(e, hz, iz);
+	}
+
+	/**
+	 * Fills a buffer with standard normal variates
+	 */
+	public static void fill(RandomEngine e, double[] buffer, int n) {
+		for(int i= 0; i< n; i++)
+			buffer[i]= nextNormal(e);
+	}
+
+	/**
+	 * @return a uniform variate in the open interval (0, 1)
+	 */
+	private static double uniform(RandomEngine e) {
+		return ((e.nextInt() & 0xffffffffL) + 0.5D) * 0x1.0p-32;
+	}
+
+	/**
+	 * The wedges and the tail
+	 */
+	private static double fix(RandomEngine e, int hz, int iz) {
+		while(true) {
+			double x= hz * W[iz];
+			if(iz == 0) {
+				double y;
+				do {
+					x= -Math.log(uniform(e)) / R;
+					y= -Math.log(uniform(e));
+				} while(y + y < x * x);
+				return (hz > 0 ? R + x : -R - x);
+			}
+			if(F[iz] + uniform(e) * (F[iz - 1] - F[iz]) < Math.exp(-0.5 * x * x))
+				return x;
+			hz= e.nextInt();
+			iz= hz & 127;
+			if(Math.abs(hz) < K[iz])
+				return hz * W[iz];
+		}
+	}
+}
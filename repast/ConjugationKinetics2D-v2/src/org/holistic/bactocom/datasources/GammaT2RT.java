@@ -30,8 +30,6 @@ public class GammaT2RT implements AggregateDataSource {
 	@Override
 	public Object get(Iterable<?> objs, int size) {
 		Context context = (Context) objs.iterator().next();
-		// The method gatherData should be called once per simulation tick
-		//ModelRatesHelper.getInstance().gatherData();
 		double rate= (double) ModelRatesHelper.getInstance().getTransconjugantPerRecipientCell(context);
 		return rate;
 	}
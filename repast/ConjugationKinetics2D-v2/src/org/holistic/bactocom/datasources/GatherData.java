@@ -1,6 +1,5 @@
 package org.holistic.bactocom.datasources;
 
-import org.holistic.bactocom.ModelRatesHelper;
 import repast.simphony.context.Context;
 import repast.simphony.data2.AggregateDataSource;
 
@@ -28,9 +27,7 @@ public class GatherData implements AggregateDataSource {
 
 	@Override
 	public Object get(Iterable<?> objs, int size) {
-		//Context context = (Context) objs.iterator().next();
-		// The method gatherData should be called once per simulation tick
-		ModelRatesHelper.getInstance().gatherData();
+		// The metrics are snapshot by the TickScheduler at the end of every tick
 		return 0;
 	}
 
@@ -34,7 +34,6 @@ public class GenerationTimeAll implements AggregateDataSource {
 	@Override
 	public Object get(Iterable<?> objs, int size) {
 		Context context = (Context) objs.iterator().next();
-		//ModelRatesHelper.getInstance().gatherData();
 		double G= (double) ModelRatesHelper.getInstance().getGenerationTimeAll(context);
 		return G;
 	}  
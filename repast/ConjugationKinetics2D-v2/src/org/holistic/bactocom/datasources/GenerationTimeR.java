@@ -34,7 +34,6 @@ public class GenerationTimeR implements AggregateDataSource {
 	@Override
 	public Object get(Iterable<?> objs, int size) {
 		Context context = (Context) objs.iterator().next();
-		//ModelRatesHelper.getInstance().gatherData();
 		double G= (double) ModelRatesHelper.getInstance().getGenerationTimeRecipient(context);
 		return G;
 	}
@@ -1,6 +1,6 @@
 package org.holistic.bactocom.datasources;
 
-import org.holistic.bactocom.MyPopulationBookkeeper;
+import org.holistic.bactocom.ModelRatesHelper;
 import repast.simphony.context.Context;
 import repast.simphony.data2.AggregateDataSource;
 
@@ -28,7 +28,7 @@ public class PopulationRecipient implements AggregateDataSource {
 
 	@Override
 	public Object get(Iterable<?> objs, int size) {
-		double p= (double) MyPopulationBookkeeper.getInstance().getR();
+		double p= (double) ModelRatesHelper.getInstance().getSnapshot().getR();
 		return p;
 	}
 
@@ -3,7 +3,6 @@ package org.holistic.bactocom.datasources;
 import org.holistic.bactocom.ModelRatesHelper;
 import repast.simphony.context.Context;
 import repast.simphony.data2.AggregateDataSource;
-import repast.simphony.engine.environment.RunEnvironment;
 
 
 /**
@@ -30,7 +29,7 @@ public class Time implements AggregateDataSource {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Object get(Iterable<?> objs, int size) {
-		double t= RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		double t= ModelRatesHelper.getInstance().getSnapshot().getTick();
 		return (double) t;
 	}
 
@@ -0,0 +1,128 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Active set tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * Starved cells leave the active set of the BacteriumStore and come back when
+ * nutrient is raised within reach of their site.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class ActiveSetTest {
+	private ModelRun previous;
+	private BacteriumStore store;
+
+	@Before
+	public void setUp() {
+		previous= new ModelRun(new HashMap<String, Object>()).enter();
+		OccupancyLattice.getInstance().reset(20, 20);
+		NutrientField.getInstance().reset(20, 20);
+		SimulationContext simulation= new SimulationContext(null, null, null,
+				new RandomStreams.Colt(new MersenneTwister(5), 0.5), 5, 0.5);
+		SimulationContext.setInstance(simulation);
+		StepContext.init(simulation);
+		store= BacteriumStore.getInstance();
+	}
+
+	@After
+	public void tearDown() {
+		ModelRun.exit(previous);
+	}
+
+	/**
+	 * Adds a live cell with a 40 minutes generation time on a site
+	 */
+	private Bacterium cell(int x, int y) {
+		int[] r= new int[1];
+		store.reserve(r, 1);
+		int s= r[0];
+		Bacterium b= new Bacterium(null, s);
+		store.attach(s, b);
+		store.commit(s);
+		store.G[s]= 40;
+		OccupancyLattice.getInstance().add(b, x, y);
+		return b;
+	}
+
+	private Set<Integer> active() {
+		Set<Integer> v= new HashSet<Integer>();
+		for(int i= 0; i< store.activeCount(); i++)
+			assertTrue(v.add(store.getActive(i)));
+		return v;
+	}
+
+	@Test
+	public void matchesReferenceSet() {
+		Random r= new Random(11);
+		Set<Integer> expected= new HashSet<Integer>();
+		Set<Integer> alive= new HashSet<Integer>();
+		for(int step= 0; step< 5000; step++) {
+			int op= r.nextInt(4);
+			if(op == 0 || alive.isEmpty()) {
+				Bacterium b= cell(r.nextInt(20), r.nextInt(20));
+				alive.add(b.getSlot());
+				expected.add(b.getSlot());
+				continue;
+			}
+			int s= r.nextInt(store.size());
+			if(op == 1) {
+				store.deactivate(s);
+				expected.remove(s);
+			} else if(op == 2) {
+				store.activate(s);				// Released slots are never activated
+				if(alive.contains(s)) expected.add(s);
+			} else {
+				if(store.isAlive(s))
+					OccupancyLattice.getInstance().remove(store.get(s));
+				store.release(s);
+				alive.remove(s);
+				expected.remove(s);
+			}
+			for(int k : expected)
+				assertTrue(store.isActive(k));
+			assertEquals(expected.size(), store.activeCount());
+		}
+		assertEquals(expected, active());
+		assertEquals(alive.size(), store.count());
+	}
+
+	@Test
+	public void starvedCellsWakeUpWithinReach() {
+		Bacterium near= cell(5, 5);
+		Bacterium far= cell(15, 15);
+		near.setStarved(true);
+		far.setStarved(true);
+		assertFalse(store.isActive(near.getSlot()));
+		assertFalse(store.isActive(far.getSlot()));
+		int queued= DivisionQueue.getInstance().size();
+
+		NutrientField.getInstance().set(OccupancyLattice.getInstance().site(7, 6), 1.0);
+		assertTrue(store.isActive(near.getSlot()));
+		assertFalse(near.isStarved());
+		assertEquals(queued + 1, DivisionQueue.getInstance().size());	// A new cell cycle
+		assertFalse(store.isActive(far.getSlot()));
+		assertTrue(far.isStarved());
+
+		NutrientField.getInstance().fill(1.0);
+		assertTrue(store.isActive(far.getSlot()));
+		assertEquals(2, store.activeCount());
+	}
+}
@@ -0,0 +1,74 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * BufferedStreams tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class BufferedStreamsTest {
+
+	/**
+	 * Counts the words drawn from an engine
+	 */
+	@SuppressWarnings("serial")
+	private static class CountingEngine extends RandomEngine {
+		private final RandomEngine engine= new MersenneTwister(1);
+		int words= 0;
+
+		@Override
+		public int nextInt() {
+			words++;
+			return engine.nextInt();
+		}
+	}
+
+	@Test
+	public void resetStartsWithSmallBlocks() {
+		CountingEngine e= new CountingEngine();
+		BufferedStreams s= new BufferedStreams(e, 0.5);
+		s.reset();
+		for(int i= 0; i< 3; i++)
+			s.nextUniform();
+		assertEquals(16, e.words);
+		for(int i= 0; i< 40; i++)
+			s.nextUniform();
+		assertEquals(16 + 32, e.words);				// The blocks double
+		s.nextIndex(8);
+		assertEquals(16 + 32 + 16, e.words);			// Every process has its own block
+	}
+
+	@Test
+	public void fullBlocksWithoutReset() {
+		CountingEngine e= new CountingEngine();
+		BufferedStreams s= new BufferedStreams(e, 0.5);
+		s.nextUniform();
+		assertEquals(512, e.words);
+		s.reset();
+		for(int i= 0; i< 16 + 32 + 64 + 128 + 256 + 512 + 1; i++)
+			s.nextUniform();
+		assertEquals(512 + 16 + 32 + 64 + 128 + 256 + 512 + 512, e.words);
+	}
+
+	@Test
+	public void sameEngineStateSameDraws() {
+		BufferedStreams a= new BufferedStreams(new MersenneTwister(4), 5);
+		BufferedStreams b= new BufferedStreams(new MersenneTwister(4), 5);
+		a.reset();
+		b.reset();
+		for(int i= 0; i< 1000; i++) {
+			assertEquals(a.nextDivision(), b.nextDivision(), 0);
+			assertEquals(a.nextConjugation(), b.nextConjugation());
+			assertEquals(a.nextShuffle(100), b.nextShuffle(100));
+		}
+	}
+}
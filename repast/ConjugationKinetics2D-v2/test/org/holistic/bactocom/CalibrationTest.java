@@ -0,0 +1,161 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Calibration tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The Nelder-Mead steps are checked on their own and on analytic errors which
+ * take the place of the model runs.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class CalibrationTest {
+	private final static double[] F= { 1, 2, 3 };		// A sorted simplex of two dimensions
+
+	/**
+	 * A search whose candidates are scored by a function of the unit box
+	 */
+	private static abstract class Analytic extends Calibration {
+		Analytic(double a, double b) {
+			super(null, start(a, b), dimensions(), 1);
+		}
+
+		abstract double error(double[] x);
+
+		@Override
+		double[] evaluate(double[][] points, double bound) {
+			double[] f= new double[points.length];
+			for(int i= 0; i< points.length; i++) {
+				f[i]= error(points[i]);
+				record(points[i], f[i], false);
+			}
+			return f;
+		}
+
+		private static Map<String, Object> start(double a, double b) {
+			Map<String, Object> v= new HashMap<String, Object>();
+			v.put(MyParameters.PN_RANDOM_SEED, 1);
+			v.put("a", a);
+			v.put("b", b);
+			return v;
+		}
+
+		private static List<Dimension> dimensions() {
+			List<Dimension> l= new ArrayList<Dimension>();
+			l.add(new Dimension("a", 0, 10, false));
+			l.add(new Dimension("b", -1, 1, false));
+			return l;
+		}
+	}
+
+	@Test
+	public void expandsWhenTheExpansionBeatsTheReflection() {
+		assertEquals(Calibration.EXPAND, Calibration.choose(F, 0.5, 0.2, 9, 9));
+	}
+
+	@Test
+	public void reflectsWhenTheReflectionIsTheBest() {
+		assertEquals(Calibration.REFLECT, Calibration.choose(F, 0.5, 0.7, 9, 9));
+	}
+
+	@Test
+	public void reflectsWhenTheReflectionBeatsTheSecondWorst() {
+		assertEquals(Calibration.REFLECT, Calibration.choose(F, 1.5, 0.2, 0.1, 0.1));
+	}
+
+	@Test
+	public void contractsOutsideWhenTheReflectionOnlyBeatsTheWorst() {
+		assertEquals(Calibration.CONTRACT_OUTSIDE, Calibration.choose(F, 2.5, 9, 2.4, 0.1));
+		assertEquals(Calibration.SHRINK, Calibration.choose(F, 2.5, 9, 2.6, 0.1));
+	}
+
+	@Test
+	public void contractsInsideWhenTheReflectionIsWorse() {
+		assertEquals(Calibration.CONTRACT_INSIDE, Calibration.choose(F, 3.5, 9, 0.1, 2.9));
+		assertEquals(Calibration.SHRINK, Calibration.choose(F, 3.5, 9, 0.1, 3.1));
+	}
+
+	@Test
+	public void keepsTheParametersOfTheForkPrefix() {
+		assertTrue(Calibration.actsBefore(MyParameters.PN_DENSITY_D, 0));
+		assertTrue(Calibration.actsBefore(MyParameters.PN_GR, 60));
+		assertFalse(Calibration.actsBefore(MyParameters.PN_GT, 0));
+		assertFalse(Calibration.actsBefore(MyParameters.PN_INTRINSIC, 60));
+	}
+
+	@Test(expected= IllegalArgumentException.class)
+	public void rejectsForksOfTheInitialPopulation() throws InterruptedException {
+		List<Calibration.Dimension> l= new ArrayList<Calibration.Dimension>();
+		l.add(new Calibration.Dimension(MyParameters.PN_INTRINSIC, 0.01, 2, false));
+		l.add(new Calibration.Dimension(MyParameters.PN_DENSITY_D, 1, 99, false));
+		new Calibration(null, new HashMap<String, Object>(), l, 1).setFork(0);
+	}
+
+	@Test
+	public void findsTheMinimumOfAQuadratic() throws InterruptedException {
+		Analytic c= new Analytic(5, 0) {
+			@Override
+			double error(double[] x) {
+				double a= x[0] - 0.3, b= x[1] - 0.8;
+				return a * a + 4 * b * b + a * b;
+			}
+		};
+		Map<String, Object> best= c.minimize(500, 1e-14);
+		assertEquals(3, (Double) best.get("a"), 1e-3);
+		assertEquals(0.6, (Double) best.get("b"), 1e-3);
+		assertTrue(c.getBestError() < 1e-8);
+		assertEquals(0, c.getStopped());
+	}
+
+	@Test
+	public void reportsTheBestVertexOfEveryIteration() throws InterruptedException {
+		Analytic c= new Analytic(5, 0) {
+			@Override
+			double error(double[] x) {
+				return Math.abs(x[0] - 0.3) + Math.abs(x[1] - 0.8);
+			}
+		};
+		final List<Double> errors= new ArrayList<Double>();
+		c.setListener(new Calibration.Listener() {
+			@Override
+			public void iteration(Calibration search, int iteration, Map<String, Object> best, double error) {
+				assertEquals(errors.size() + 1, iteration);
+				assertEquals(error, Math.abs((Double) best.get("a") / 10 - 0.3) + Math.abs(((Double) best.get("b") + 1) / 2 - 0.8), 1e-12);
+				errors.add(error);
+			}
+		});
+		c.minimize(40, 0);
+		assertTrue(errors.size() > 1);
+		for(int i= 1; i< errors.size(); i++)
+			assertTrue(errors.get(i) <= errors.get(i - 1));
+		assertTrue(c.getBestError() <= errors.get(errors.size() - 1));
+	}
+
+	@Test
+	public void staysOnTheBoxWhenTheMinimumIsOutside() throws InterruptedException {
+		Analytic c= new Analytic(5, 0) {
+			@Override
+			double error(double[] x) {
+				assertTrue(x[0] >= 0 && x[0] <= 1 && x[1] >= 0 && x[1] <= 1);
+				return x[0] - x[1];
+			}
+		};
+		Map<String, Object> best= c.minimize(500, 1e-12);
+		assertEquals(0, (Double) best.get("a"), 1e-6);
+		assertEquals(1, (Double) best.get("b"), 1e-6);
+		assertTrue(c.getEvaluations() < 500 + 6);
+	}
+}
@@ -0,0 +1,77 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checkpoint tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * A run restored from a checkpoint must write the same rows as the run which
+ * saved it, from the checkpoint tick on.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class CheckpointTest {
+	private final static int EVERY= 420;			// A single checkpoint, before the end of the run
+
+	private Map<String, Object> values;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		values= HeadlessEngine.loadParameters(new File("ConjugationKinetics2D-v2.rs/parameters.xml"), null);
+		values.put(MyParameters.PN_RANDOM_SEED, 3);
+		values.put("density0", "2*10^8");
+		file= File.createTempFile("bactocom", ".ckp");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void restoredRunsContinueTheSavedOne() throws IOException {
+		assertRestoredRunMatches();
+	}
+
+	@Test
+	public void restoredTiledRunsContinueTheSavedOne() throws IOException {
+		values.put(MyParameters.PN_TILE_SIZE, 16);
+		values.put(MyParameters.PN_COUNTER_RNG, true);
+		assertRestoredRunMatches();
+	}
+
+	private void assertRestoredRunMatches() throws IOException {
+		String full= run(null, null);
+		String saved= run(file, null);
+		assertEquals("Saving must not change the run", full, saved);
+
+		String restored= run(null, file);
+		assertTrue(restored.length() > 0);
+		assertTrue(restored.length() < full.length());
+		assertTrue(restored.startsWith((EVERY + HeadlessEngine.RECORD_START) + ","));
+		assertTrue("The restored rows must end the full run", full.endsWith(restored));
+	}
+
+	private String run(File checkpoint, File restore) throws IOException {
+		HeadlessEngine engine= new HeadlessEngine(values);
+		engine.setCheckpoint(checkpoint, EVERY);
+		engine.setRestore(restore);
+		StringWriter w= new StringWriter();
+		engine.run(w, 1, false);
+		return w.toString();
+	}
+}
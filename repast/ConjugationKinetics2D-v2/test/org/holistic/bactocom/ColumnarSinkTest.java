@@ -0,0 +1,126 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import repast.simphony.data2.AggregateDataSource;
+
+/**
+ * ColumnarSink tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The rows written must be read back unchanged, whether the blocks are deflated
+ * or not, full or not.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class ColumnarSinkTest {
+	private final static int BLOCK= 256;			// ColumnarSink rows per block
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file= File.createTempFile("bactocom", ".bcol");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void readsBackCompressedBlocks() throws IOException, DataFormatException {
+		assertRoundTrip(true, 2 * BLOCK + 37);
+	}
+
+	@Test
+	public void readsBackRawBlocks() throws IOException, DataFormatException {
+		assertRoundTrip(false, 2 * BLOCK + 37);
+	}
+
+	@Test
+	public void readsBackFullBlocksOnly() throws IOException, DataFormatException {
+		assertRoundTrip(true, BLOCK);
+		assertRoundTrip(false, BLOCK);
+	}
+
+	@Test
+	public void readsBackAnEmptyRun() throws IOException, DataFormatException {
+		assertRoundTrip(true, 0);
+		assertRoundTrip(false, 0);
+	}
+
+	@Test
+	public void writesTheNumericEngineColumns() throws IOException, DataFormatException {
+		ColumnarSink.Contents contents= assertRoundTrip(true, 1);
+		AggregateDataSource[] columns= HeadlessEngine.getNumericColumns();
+		assertEquals(columns.length, contents.names.length);
+		for(int c= 0; c< columns.length; c++)
+			assertEquals(columns[c].getId(), contents.names[c]);
+		assertEquals("Time", contents.names[0]);
+	}
+
+	@Test
+	public void recordsWhyTheRunStopped() throws IOException, DataFormatException {
+		Map<String, Object> values= HeadlessEngine.loadParameters(new File("ConjugationKinetics2D-v2.rs/parameters.xml"), null);
+		values.put(MyParameters.PN_RANDOM_SEED, 3);
+		values.put("density0", "2*10^8");
+		values.put(MyParameters.PN_ABORT_TOLERANCE, 0.001);
+		HeadlessEngine engine= new HeadlessEngine(values);
+		engine.setColumnar(file, true);
+		StringWriter text= new StringWriter();
+		engine.run(text, 1, true);
+
+		DivergenceMonitor monitor= engine.getMonitor();
+		assertTrue(monitor.isStopped());
+		ColumnarSink.Contents contents= ColumnarSink.read(file);
+		assertEquals(monitor.getStatusEntries(), contents.trailer);
+		assertEquals("TOLERANCE", contents.trailer.get("reason"));
+		assertEquals(String.valueOf(monitor.getStoppedAt()), contents.trailer.get("stopped_at"));
+		assertEquals(monitor.getStoppedAt(), contents.rows.get(contents.rows.size() - 1)[0], 0);
+		assertTrue(text.toString().endsWith("# reason= TOLERANCE\n# stopped_at= " + monitor.getStoppedAt()
+				+ "\n# error= " + monitor.getError() + "\n"));
+	}
+
+	private ColumnarSink.Contents assertRoundTrip(boolean compressed, int n) throws IOException, DataFormatException {
+		Map<String, String> header= new LinkedHashMap<String, String>();
+		header.put("run", "7");
+		header.put("Plasmid", "pSim1");
+		int columns= HeadlessEngine.getNumericColumns().length;
+
+		ColumnarSink sink= new ColumnarSink(file, compressed, header);
+		for(int r= 0; r< n; r++)
+			sink.append(row(r, columns));
+		sink.close();
+
+		ColumnarSink.Contents contents= ColumnarSink.read(file);
+		assertEquals(header, contents.header);
+		assertTrue("Closed without the run outcome", contents.trailer.isEmpty());
+		assertEquals(n, contents.rows.size());
+		for(int r= 0; r< n; r++)
+			assertArrayEquals(row(r, columns), contents.rows.get(r), 0);
+		return contents;
+	}
+
+	private static double[] row(int r, int columns) {
+		double[] v= new double[columns];
+		for(int c= 0; c< columns; c++)
+			v[c]= (c == 1 && r % 5 == 0 ? Double.NaN : r * 100 + c + 1.0 / (c + 1));
+		return v;
+	}
+}
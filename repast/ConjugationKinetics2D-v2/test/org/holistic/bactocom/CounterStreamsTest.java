@@ -0,0 +1,72 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * CounterStreams tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The Philox4x32-10 known answers are those of the Random123 distribution
+ * (kat_vectors).
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class CounterStreamsTest {
+
+	private static int[] philox(int k0, int k1, int c0, int c1, int c2, int c3) {
+		int[] v= new int[4];
+		CounterStreams.philox(k0, k1, c0, c1, c2, c3, v);
+		return v;
+	}
+
+	@Test
+	public void philoxKnownAnswers() {
+		assertArrayEquals(new int[] {0x6627e8d5, 0xe169c58d, 0xbc57ac4c, 0x9b00dbd8},
+				philox(0, 0, 0, 0, 0, 0));
+		assertArrayEquals(new int[] {0x408f276d, 0x41c83b0e, 0xa20bc7c6, 0x6d5451fd},
+				philox(0xffffffff, 0xffffffff, 0xffffffff, 0xffffffff, 0xffffffff, 0xffffffff));
+		assertArrayEquals(new int[] {0xd16cfe09, 0x94fdcceb, 0x5001e420, 0x24126ea1},
+				philox(0xa4093822, 0x299f31d0, 0x243f6a88, 0x85a308d3, 0x13198a2e, 0x03707344));
+	}
+
+	@Test
+	public void drawsOnlyDependOnTheStep() {
+		CounterStreams a= new CounterStreams(42, 0.5);
+		CounterStreams b= new CounterStreams(42, 0.5);
+		a.bind(7, 100, 2);
+		double u= a.nextUniform();
+		double z= a.nextDivision();
+		int k= a.nextIndex(8);
+
+		b.bind(9, 100, 2);						// Some other step in between
+		b.nextUniform();
+		b.nextGamma();
+		b.bind(7, 100, 2);
+		assertEquals(z, b.nextDivision(), 0);	// Processes have their own counters
+		assertEquals(u, b.nextUniform(), 0);
+		assertEquals(k, b.nextIndex(8));
+
+		b.bind(7, 101, 2);
+		assertTrue(u != b.nextUniform());
+	}
+
+	@Test
+	public void uniformsAreOpenAndBalanced() {
+		CounterStreams s= new CounterStreams(1, 0.5);
+		double sum= 0;
+		int n= 200000;
+		for(int i= 0; i< n; i++) {
+			if(i % 100 == 0) s.bind(i / 100, 0, 0);
+			double u= s.nextUniform();
+			assertTrue(u > 0 && u < 1);
+			sum+= u;
+		}
+		assertEquals(0.5, sum / n, 0.005);
+	}
+}
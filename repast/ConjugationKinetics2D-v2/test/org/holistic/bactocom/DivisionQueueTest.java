@@ -0,0 +1,103 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * DivisionQueue tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class DivisionQueueTest {
+	private ModelRun previous;
+	private BacteriumStore store;
+	private DivisionQueue queue;
+	private long nextId= 0;
+
+	@Before
+	public void setUp() {
+		previous= new ModelRun(new HashMap<String, Object>()).enter();
+		SimulationContext.setInstance(new SimulationContext(null, null, null, null, 1, 0.5));
+		store= BacteriumStore.getInstance();
+		queue= DivisionQueue.getInstance();
+	}
+
+	@After
+	public void tearDown() {
+		ModelRun.exit(previous);
+	}
+
+	/**
+	 * Adds a live cell due at the given time and queues it
+	 */
+	private Bacterium cell(double due) {
+		int[] r= new int[1];
+		store.reserve(r, 1);
+		int s= r[0];
+		Bacterium b= new Bacterium(null, s);
+		store.attach(s, b);
+		store.commit(s);
+		store.id[s]= nextId++;
+		store.due[s]= due;
+		queue.add(b);
+		return b;
+	}
+
+	@Test
+	public void pollsDueCellsInTimeOrder() {
+		Random r= new Random(7);
+		int cells= 5000;
+		for(int i= 0; i< cells; i++)
+			cell(r.nextInt(600) + r.nextDouble());
+		int polled= 0;
+		for(double t= 0; t<= 600; t++) {
+			int m= queue.poll(t);
+			double last= Double.NEGATIVE_INFINITY;
+			for(int i= 0; i< m; i++) {
+				double due= store.due[queue.getDue(i)];
+				assertTrue(due <= t && due > t - 1);
+				assertTrue(due >= last);
+				last= due;
+			}
+			polled+= m;
+		}
+		assertEquals(cells, polled);
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void dropsStaleEntries() {
+		Bacterium released= cell(3);
+		Bacterium starved= cell(3);
+		Bacterium rescheduled= cell(3);
+		Bacterium reused= cell(3);
+		Bacterium live= cell(3);
+
+		store.release(released.getSlot());
+		store.starved[starved.getSlot()]= true;
+		store.due[rescheduled.getSlot()]= 5;
+		queue.add(rescheduled);
+		int s= reused.getSlot();
+		store.release(s);
+		assertEquals(s, store.allocate(null));			// The free list hands the slot again
+		store.attach(s, new Bacterium(null, s));
+		store.id[s]= nextId++;
+		store.due[s]= 3;
+
+		assertEquals(1, queue.poll(4));
+		assertEquals(live.getSlot(), queue.getDue(0));
+		assertEquals(1, queue.poll(5));
+		assertEquals(rescheduled.getSlot(), queue.getDue(0));
+		assertEquals(0, queue.size());
+	}
+}
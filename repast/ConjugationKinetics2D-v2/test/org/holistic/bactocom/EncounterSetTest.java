@@ -0,0 +1,65 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * EncounterSet tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class EncounterSetTest {
+
+	@Test
+	public void exactMatchesHashSet() {
+		Random r= new Random(1);
+		EncounterSet s= new EncounterSet.Exact();
+		Set<Long> expected= new HashSet<Long>();
+		for(int i= 0; i< 100000; i++) {
+			long id= r.nextInt(20000);			// Plenty of repeats, several rehashes
+			assertEquals(expected.add(id), s.add(id));
+		}
+		assertEquals(expected.size(), s.size());
+	}
+
+	@Test
+	public void exactKeepsIdZero() {
+		EncounterSet s= new EncounterSet.Exact();
+		assertTrue(s.add(0));
+		assertFalse(s.add(0));
+		assertTrue(s.add(Long.MAX_VALUE));
+		assertEquals(2, s.size());
+	}
+
+	@Test
+	public void approximateNeverForgets() {
+		EncounterSet s= new EncounterSet.Approximate();
+		for(long id= 0; id< 5000; id++)
+			s.add(id);
+		for(long id= 0; id< 5000; id++)
+			assertFalse(s.add(id));
+		assertTrue(s.size() <= 5000);
+	}
+
+	@Test
+	public void approximateIsExactForFewEncounters() {
+		// A cell meets a few dozen cells, at 40 ids the 1024 bit filter has a
+		// false positive rate of about 1e-3, so at most a couple of misses
+		EncounterSet s= new EncounterSet.Approximate();
+		int added= 0;
+		for(long id= 1000; id< 1040; id++)
+			if(s.add(id)) added++;
+		assertTrue(added >= 38);
+		assertEquals(added, s.size());
+	}
+}
@@ -0,0 +1,84 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.nfunk.jep.JEP;
+
+/**
+ * FitnessFunction tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The compiled curve must give the values JEP interprets from the same expression.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class FitnessFunctionTest {
+	private final static String EQUATION= "y= -0.0247697070010407 + 0.00875911917173572 * x + -2.58749799802607e-05 * x^2 + 2.50042083411124e-08 * x^3";
+
+	private static JEP parse(String s) {
+		JEP parser= new JEP();
+		parser.initSymTab();
+		parser.addStandardConstants();
+		parser.addStandardFunctions();
+		parser.addComplex();
+		parser.setAllowAssignment(true);
+		parser.setAllowUndeclared(true);
+		parser.addVariable("x", 0);
+		parser.parseExpression(s);
+		return parser;
+	}
+
+	private static double interpret(JEP parser, double x) {
+		parser.setVarValue("x", x);
+		return parser.getValue();
+	}
+
+	/**
+	 * Compares the curve with JEP on every tick and in between
+	 */
+	private static void assertMatchesJep(String s, boolean polynomial, double tolerance) {
+		FitnessFunction f= new FitnessFunction(s, 600);
+		JEP parser= parse(s);
+		assertEquals(polynomial, f.isPolynomial());
+		for(double x= 0; x<= 600; x+= 0.5) {
+			double expected= interpret(parser, x);
+			double scale= Math.max(1, Math.abs(expected));
+			assertEquals(s + " at " + x, expected, f.getValue(x), tolerance * scale);
+		}
+	}
+
+	@Test
+	public void foldsTheFittedCubic() {
+		assertMatchesJep(EQUATION, true, 1e-12);
+	}
+
+	@Test
+	public void foldsPolynomialOperators() {
+		assertMatchesJep("y= (x - 3) * (x + 2) / 4 - 2^3", true, 1e-12);
+		assertMatchesJep("-x^2 + 3 * x - (x - 1)^3 / 1000", true, 1e-12);
+		assertMatchesJep("y= 2 * pi * x", true, 1e-12);
+		assertMatchesJep("0.5", true, 0);
+	}
+
+	@Test
+	public void tabulatesOtherExpressions() {
+		assertMatchesJep("y= 1 - exp(-x / 100)", false, 0);
+		assertMatchesJep("x^0.5", false, 0);
+		assertMatchesJep("1 / (x + 1)", false, 0);
+	}
+
+	@Test
+	public void interpretsOutOfTheTable() {
+		String s= "y= 1 - exp(-x / 100)";
+		FitnessFunction f= new FitnessFunction(s, 10);
+		assertFalse(f.isPolynomial());
+		assertEquals(interpret(parse(s), 250), f.getValue(250), 0);
+		assertEquals(interpret(parse(s), -1), f.getValue(-1.0), 0);
+		assertTrue(new FitnessFunction(EQUATION, 10).isPolynomial());
+	}
+}
@@ -0,0 +1,88 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * MyPopulationBookkeeper tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The threads update their own stripes, the totals only change on reduce().
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class MyPopulationBookkeeperTest {
+	private final static double K= MyParameters.N_SCALEFACTOR;
+
+	@Test
+	public void reducesTheStripesOfEveryThread() throws InterruptedException {
+		final MyPopulationBookkeeper b= new MyPopulationBookkeeper();
+		long expectedD= 0, expectedR= 0, expectedT= 0, expectedE= 0;
+
+		for(int tick= 0; tick< 5; tick++) {
+			List<Thread> threads= new ArrayList<Thread>();
+			final int[][] counts= new int[8][4];
+			for(int w= 0; w< counts.length; w++) {
+				final int[] c= counts[w];
+				final Random r= new Random(tick * 100 + w);
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						for(int i= 0; i< 100000; i++) {
+							switch(r.nextInt(7)) {
+							case 0: b.incrementD(); c[0]++; break;
+							case 1: b.decrementD(); c[0]--; break;
+							case 2: b.incrementR(); c[1]++; break;
+							case 3: b.decrementR(); c[1]--; break;
+							case 4: b.incrementT(); c[2]++; break;
+							case 5: b.decrementT(); c[2]--; break;
+							default: b.incrementE(); c[3]++; break;
+							}
+						}
+					}
+				});
+			}
+			for(Thread t : threads) t.start();
+			for(Thread t : threads) t.join();
+			assertEquals(expectedD * K, b.getD(), 0);		// Not reduced yet
+			b.reduce();
+			for(int[] c : counts) {
+				expectedD+= c[0];
+				expectedR+= c[1];
+				expectedT+= c[2];
+				expectedE+= c[3];
+			}
+			assertEquals(expectedD * K, b.getD(), 0);
+			assertEquals(expectedR * K, b.getR(), 0);
+			assertEquals(expectedT * K, b.getT(), 0);
+			assertEquals(expectedE * K, b.getE(), 0);
+			assertEquals((expectedD + expectedR + expectedT) * K, b.getAll(), 0);
+			b.reduce();										// Nothing left to fold
+			assertEquals(expectedD * K, b.getD(), 0);
+		}
+
+		b.reset();
+		b.reduce();
+		assertEquals(0, b.getD(), 0);
+		assertEquals(0, b.getE(), 0);
+	}
+
+	@Test
+	public void resetDropsUnreducedUpdates() {
+		MyPopulationBookkeeper b= new MyPopulationBookkeeper();
+		b.incrementCd();
+		b.incrementCt();
+		b.reset();
+		b.incrementCt();
+		b.reduce();
+		assertEquals(0, b.getCd(), 0);
+		assertEquals(K, b.getCt(), 0);
+	}
+}
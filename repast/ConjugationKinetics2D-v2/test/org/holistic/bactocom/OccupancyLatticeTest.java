@@ -0,0 +1,102 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * OccupancyLattice tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class OccupancyLatticeTest {
+	private final static int W= 12;
+	private final static int H= 10;
+
+	private ModelRun previous;
+	private OccupancyLattice lattice;
+
+	@Before
+	public void setUp() {
+		previous= new ModelRun(new HashMap<String, Object>()).enter();
+		SimulationContext.setInstance(new SimulationContext(null, null, null, null, 1, 0.5));
+		lattice= OccupancyLattice.getInstance();
+		lattice.reset(W, H);
+	}
+
+	@After
+	public void tearDown() {
+		ModelRun.exit(previous);
+	}
+
+	/**
+	 * Checks the incremental counts against a full scan
+	 */
+	private void assertCounts(int[] occupants) {
+		int frontier= 0;
+		for(int y= 0; y< H; y++) {
+			for(int x= 0; x< W; x++) {
+				int s= lattice.site(x, y);
+				int empty= 0;
+				for(int dx= -1; dx<= 1; dx++)
+					for(int dy= -1; dy<= 1; dy++)
+						if((dx != 0 || dy != 0) && occupants[lattice.site(x + dx, y + dy)] == 0) empty++;
+				assertEquals(empty, lattice.countEmptyNeighbors(s));
+				assertEquals(occupants[s], lattice.count(s));
+				if(occupants[s] > 0 && empty > 0) frontier++;
+			}
+		}
+		assertEquals(frontier, lattice.getFrontierSize());
+	}
+
+	@Test
+	public void frontierFollowsRandomMoves() {
+		Random r= new Random(3);
+		Bacterium[] cells= new Bacterium[150];
+		int[] site= new int[cells.length];
+		int[] occupants= new int[W * H];
+		for(int i= 0; i< cells.length; i++) {
+			cells[i]= new Bacterium(null, i);
+			site[i]= -1;
+		}
+		for(int step= 0; step< 3000; step++) {
+			int i= r.nextInt(cells.length);
+			if(site[i] >= 0 && r.nextInt(4) == 0) {
+				lattice.remove(cells[i]);
+				occupants[site[i]]--;
+				site[i]= -1;
+			} else {
+				int x= r.nextInt(W);
+				int y= r.nextInt(H);
+				lattice.add(cells[i], x, y);
+				if(site[i] >= 0) occupants[site[i]]--;
+				site[i]= lattice.site(x, y);
+				occupants[site[i]]++;
+			}
+			assertEquals(site[i], lattice.getSite(cells[i]));
+			if(step % 50 == 0)
+				assertCounts(occupants);
+		}
+		assertCounts(occupants);
+	}
+
+	@Test
+	public void wrapsAroundTheBorders() {
+		Bacterium b= new Bacterium(null, 0);
+		lattice.add(b, 0, 0);
+		assertEquals(7, lattice.countEmptyNeighbors(lattice.site(W - 1, H - 1)));
+		assertEquals(7, lattice.countEmptyNeighbors(lattice.site(1, H - 1)));
+		assertEquals(1, lattice.getFrontierSize());
+		lattice.remove(b);
+		assertEquals(8, lattice.countEmptyNeighbors(lattice.site(W - 1, H - 1)));
+		assertEquals(0, lattice.getFrontierSize());
+	}
+}
@@ -0,0 +1,96 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cern.jet.random.Poisson;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * PoissonTable tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The tolerances are about six standard errors of the tested moments.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class PoissonTableTest {
+	private final static int N= 400000;
+
+	private static void assertMoments(double mean) {
+		PoissonTable t= new PoissonTable(mean);
+		RandomEngine e= new MersenneTwister(3);
+		double sum= 0, sum2= 0;
+		for(int i= 0; i< N; i++) {
+			int k= t.sample(e.raw(), t.isApproximate() ? Ziggurat.nextNormal(e) : 0);
+			sum+= k;
+			sum2+= (double) k * k;
+		}
+		double m= sum / N;
+		double v= sum2 / N - m * m;
+		assertEquals(mean, m, 6 * Math.sqrt(mean / N));
+		assertEquals(mean, v, 6 * mean * Math.sqrt((2 + 1 / mean) / N));
+	}
+
+	@Test
+	public void tabulatedMoments() {
+		assertMoments(0.5);
+		assertMoments(5);
+		assertMoments(40);
+	}
+
+	@Test
+	public void approximateMoments() {
+		assertFalse(new PoissonTable(40).isApproximate());
+		assertTrue(new PoissonTable(500).isApproximate());
+		assertMoments(500);
+	}
+
+	@Test
+	public void invertsTheColtDistribution() {
+		for(double mean : new double[] {0.5, 5, 40}) {
+			PoissonTable t= new PoissonTable(mean);
+			Poisson p= new Poisson(mean, new MersenneTwister(1));
+			RandomEngine e= new MersenneTwister(5);
+			for(int i= 0; i< 20000; i++) {
+				double u= e.raw();
+				int k= t.sample(u, 0);
+				assertTrue(p.cdf(k) >= u - 1e-9);
+				assertTrue(k == 0 || p.cdf(k - 1) < u + 1e-9);
+			}
+			// The far tail, where the guide table is sparsest
+			assertEquals(p.cdf(t.sample(1 - 1e-12, 0)), 1, 1e-9);
+		}
+	}
+
+	@Test
+	public void tailMatchesColtSampler() {
+		double mean= 5;
+		PoissonTable t= new PoissonTable(mean);
+		Poisson p= new Poisson(mean, new MersenneTwister(7));
+		RandomEngine e= new MersenneTwister(8);
+		int[] table= new int[40];
+		int[] colt= new int[40];
+		for(int i= 0; i< N; i++) {
+			table[Math.min(39, t.sample(e.raw(), 0))]++;
+			colt[Math.min(39, p.nextInt())]++;
+		}
+		for(int k= 8; k<= 14; k++) {
+			int a= 0, b= 0;
+			for(int j= k; j< 40; j++) {
+				a+= table[j];
+				b+= colt[j];
+			}
+			double expected= (1 - p.cdf(k - 1)) * N;
+			assertEquals(expected, a, 6 * Math.sqrt(expected) + 1);
+			assertEquals(expected, b, 6 * Math.sqrt(expected) + 1);
+			assertEquals(a, b, 6 * Math.sqrt(2 * expected) + 1);
+		}
+	}
+}
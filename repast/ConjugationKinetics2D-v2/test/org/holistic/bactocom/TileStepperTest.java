@@ -0,0 +1,74 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * TileStepper tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The slots reserved for the births of every colour and left unused must be
+ * reused, so the store of a tiled run stays close to its live cells.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class TileStepperTest {
+	private Map<String, Object> values;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		values= HeadlessEngine.loadParameters(new File("ConjugationKinetics2D-v2.rs/parameters.xml"), null);
+		values.put(MyParameters.PN_RANDOM_SEED, 3);
+		values.put("density0", "2*10^8");
+		values.put(MyParameters.PN_TILE_SIZE, 16);
+		file= File.createTempFile("bactocom", ".ckp");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void phaseMajorRunsReuseTheReservedSlots() throws IOException {
+		assertStoreBounded();
+	}
+
+	@Test
+	public void fusedRunsReuseTheReservedSlots() throws IOException {
+		values.put(MyParameters.PN_FUSED_TICK, true);
+		assertStoreBounded();
+	}
+
+	/**
+	 * Runs to the end and checks the store saved on the last tick
+	 */
+	private void assertStoreBounded() throws IOException {
+		HeadlessEngine engine= new HeadlessEngine(values);
+		engine.setCheckpoint(file, (int) MyParameters.END_AT);
+		engine.run(null, 1, false);
+
+		ModelRun previous= new ModelRun(values).enter();
+		try {
+			Checkpoint.restore(file);
+			BacteriumStore store= BacteriumStore.getInstance();
+			assertTrue(store.count() > 0);
+			assertTrue("Store slots " + store.size() + " for " + store.count() + " cells",
+					store.size() < 2 * store.count());
+			assertEquals("Every slot is live or free", store.size(), store.count() + store.freeCount());
+		} finally {
+			ModelRun.exit(previous);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.holistic.bactocom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Ziggurat tests for model developed for FdlC group paper
+ * "Experimental validation of a kinetic numerical model of bacterial conjugation"
+ *
+ * The tolerances are about six standard errors of the tested moments.
+ *
+ *
+ * @author APG, ARPA
+ *
+ */
+public class ZigguratTest {
+	private final static int N= 400000;
+
+	@Test
+	public void standardNormalMoments() {
+		double[] v= new double[N];
+		Ziggurat.fill(new MersenneTwister(1), v, N);
+		double sum= 0, sum2= 0, sum3= 0, sum4= 0;
+		int tail= 0;
+		int far= 0;
+		for(double z : v) {
+			sum+= z;
+			sum2+= z * z;
+			sum3+= z * z * z;
+			sum4+= z * z * z * z;
+			if(Math.abs(z) > 2) tail++;
+			if(z > 3.5) far++;				// Beyond the base layer, sampled from the tail
+		}
+		double mean= sum / N;
+		double variance= sum2 / N - mean * mean;
+		assertEquals(0, mean, 0.01);
+		assertEquals(1, variance, 0.013);
+		assertEquals(0, sum3 / N, 0.025);			// Skewness
+		assertEquals(3, sum4 / N, 0.06);			// Kurtosis
+		assertEquals(0.0455 * N, tail, 6 * Math.sqrt(0.0455 * N));
+		assertTrue(far > 0.000233 * N / 2 && far < 0.000233 * N * 2);
+	}
+
+	@Test
+	public void fillMatchesSingleDraws() {
+		double[] v= new double[1000];
+		Ziggurat.fill(new MersenneTwister(9), v, v.length);
+		MersenneTwister e= new MersenneTwister(9);
+		for(int i= 0; i< v.length; i++)
+			assertEquals(v[i], Ziggurat.nextNormal(e), 0);
+	}
+}